@@ -1,6 +1,12 @@
 package org.twuni.twoson;
 
-public class BaseJSONEventListener implements JSONEventListener {
+import java.util.Arrays;
+
+public class BaseJSONEventListener implements JSONNumberEventListener, JSONSliceEventListener, JSONSymbolEventListener {
+
+	private static byte [] copyOf( byte [] buffer, int offset, int length ) {
+		return Arrays.copyOfRange( buffer, offset, offset + length );
+	}
 
 	@Override
 	public void onBeginArray() {
@@ -47,14 +53,56 @@ public class BaseJSONEventListener implements JSONEventListener {
 		// By default, do nothing.
 	}
 
+	/**
+	 * By default, passes the nearest double to {@link #onDouble(double)}.
+	 */
+	@Override
+	public void onNumber( byte [] buffer, int offset, int length ) {
+		char [] chars = new char [length];
+		for( int i = 0; i < length; i++ ) {
+			chars[i] = (char) buffer[offset + i];
+		}
+		onDouble( Double.parseDouble( new String( chars ) ) );
+	}
+
 	@Override
 	public void onObjectKey( byte [] value ) {
 		// By default, do nothing.
 	}
 
+	/**
+	 * By default, copies the slice and passes the copy to {@link #onObjectKey(byte[])}, burning it
+	 * afterwards.
+	 */
+	@Override
+	public void onObjectKey( byte [] buffer, int offset, int length ) {
+		byte [] value = copyOf( buffer, offset, length );
+		onObjectKey( value );
+		Arrays.fill( value, (byte) 0 );
+	}
+
+	/**
+	 * By default, passes the symbol on as a slice to {@link #onObjectKey(byte[], int, int)}.
+	 */
+	@Override
+	public void onObjectKeySymbol( byte [] symbol ) {
+		onObjectKey( symbol, 0, symbol.length );
+	}
+
 	@Override
 	public void onString( byte [] value ) {
 		// By default, do nothing.
 	}
 
+	/**
+	 * By default, copies the slice and passes the copy to {@link #onString(byte[])}, burning it
+	 * afterwards.
+	 */
+	@Override
+	public void onString( byte [] buffer, int offset, int length ) {
+		byte [] value = copyOf( buffer, offset, length );
+		onString( value );
+		Arrays.fill( value, (byte) 0 );
+	}
+
 }
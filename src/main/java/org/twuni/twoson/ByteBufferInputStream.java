@@ -0,0 +1,61 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Feeds the remaining bytes of a buffer to a parser that reads them in chunks, as it would an input
+ * stream. Direct buffers have no array to scan in place, so the parser drains them through its
+ * chunk instead, advancing the buffer's position as it goes.
+ */
+final class ByteBufferInputStream extends InputStream {
+
+	private ByteBuffer source;
+
+	@Override
+	public int available() {
+		return source != null ? source.remaining() : 0;
+	}
+
+	@Override
+	public int read() {
+		return source != null && source.hasRemaining() ? source.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read( byte [] b, int off, int len ) {
+		if( source == null || !source.hasRemaining() ) {
+			return -1;
+		}
+		int n = Math.min( len, source.remaining() );
+		source.get( b, off, n );
+		return n;
+	}
+
+	public void reset( ByteBuffer source ) {
+		this.source = source;
+	}
+
+}
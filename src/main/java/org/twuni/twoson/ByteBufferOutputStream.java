@@ -0,0 +1,80 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes into a buffer supplied by the caller, which may be direct, advancing its position. When the
+ * buffer fills, the listener is asked for room, and writing goes on in whatever buffer it returns.
+ * Without a listener, or if it makes no room, the write fails with a
+ * {@link BufferOverflowException}.
+ * 
+ * A generator still formats into its own heap buffer, so each byte is copied once from there into the
+ * target, a buffer at a time.
+ */
+final class ByteBufferOutputStream extends OutputStream {
+
+	private final JSONOverflowListener listener;
+	private ByteBuffer target;
+
+	public ByteBufferOutputStream( ByteBuffer target, JSONOverflowListener listener ) {
+		this.target = target;
+		this.listener = listener;
+	}
+
+	private void overflow() throws IOException {
+		if( listener == null ) {
+			throw new BufferOverflowException();
+		}
+		target = listener.onOverflow( target );
+		if( target == null || !target.hasRemaining() ) {
+			throw new BufferOverflowException();
+		}
+	}
+
+	@Override
+	public void write( byte [] b, int off, int len ) throws IOException {
+		while( len > 0 ) {
+			if( !target.hasRemaining() ) {
+				overflow();
+			}
+			int n = Math.min( len, target.remaining() );
+			target.put( b, off, n );
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write( int b ) throws IOException {
+		if( !target.hasRemaining() ) {
+			overflow();
+		}
+		target.put( (byte) b );
+	}
+
+}
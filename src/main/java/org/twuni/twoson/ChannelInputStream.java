@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Feeds a channel to a parser that reads it in chunks, as it would an input stream. Reads go
+ * through a direct buffer that is kept from one channel to the next, so the channel can fill it
+ * without an intermediate copy of its own.
+ * 
+ * The channel should be in blocking mode; a non-blocking channel is polled until it has data.
+ */
+final class ChannelInputStream extends InputStream {
+
+	private final ByteBuffer direct = ByteBuffer.allocateDirect( 64 * 1024 );
+	private ReadableByteChannel source;
+	private int highWaterMark;
+
+	/**
+	 * Burns whatever the direct buffer has held and lets go of the channel.
+	 */
+	public void clear() {
+		direct.clear();
+		for( int i = 0; i < highWaterMark; i++ ) {
+			direct.put( i, (byte) 0 );
+		}
+		highWaterMark = 0;
+		source = null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte [] b = new byte [1];
+		return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read( byte [] b, int off, int len ) throws IOException {
+		if( source == null ) {
+			return -1;
+		}
+		direct.clear().limit( Math.min( len, direct.capacity() ) );
+		int n = source.read( direct );
+		while( n == 0 ) {
+			n = source.read( direct );
+		}
+		if( n < 0 ) {
+			return -1;
+		}
+		highWaterMark = Math.max( highWaterMark, n );
+		direct.flip();
+		direct.get( b, off, n );
+		return n;
+	}
+
+	public void reset( ReadableByteChannel source ) {
+		this.source = source;
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects what is written in a chain of direct buffers, and hands the whole chain to a channel in
+ * one gathering write when flushed, or sooner once the chain is full. The buffers are burned after
+ * each write and kept by the thread for the next stream it opens.
+ * 
+ * A generator still formats into its own heap buffer, so each byte is copied once from there into a
+ * direct buffer. There are no further copies on the way to the channel, and no array the size of the
+ * whole output.
+ * 
+ * Closing the stream writes out what is left but leaves the channel open. The channel should be in
+ * blocking mode; a non-blocking channel is polled until it has taken everything.
+ */
+final class ChannelOutputStream extends OutputStream {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+	static final int CHAIN_LENGTH = 16;
+
+	private static final byte [] ZEROES = new byte [BUFFER_SIZE];
+	private static final ThreadLocal<List<ByteBuffer>> POOLS = new ThreadLocal<List<ByteBuffer>>() {
+
+		@Override
+		protected List<ByteBuffer> initialValue() {
+			return new ArrayList<ByteBuffer>( CHAIN_LENGTH );
+		}
+
+	};
+
+	private static ByteBuffer acquire() {
+		List<ByteBuffer> pool = POOLS.get();
+		return pool.isEmpty() ? ByteBuffer.allocateDirect( BUFFER_SIZE ) : pool.remove( pool.size() - 1 );
+	}
+
+	/**
+	 * Burns what the given flipped buffer held and keeps it for reuse by this thread, unless enough are kept
+	 * already.
+	 */
+	private static void release( ByteBuffer buffer ) {
+		int used = buffer.limit();
+		buffer.clear();
+		buffer.put( ZEROES, 0, used );
+		buffer.clear();
+		List<ByteBuffer> pool = POOLS.get();
+		if( pool.size() < CHAIN_LENGTH ) {
+			pool.add( buffer );
+		}
+	}
+
+	private final GatheringByteChannel target;
+	private final ByteBuffer [] chain = new ByteBuffer [CHAIN_LENGTH];
+	private int length;
+
+	public ChannelOutputStream( GatheringByteChannel target ) {
+		this.target = target;
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * @return the last buffer in the chain, or a new one added to it if that one is full.
+	 */
+	private ByteBuffer current() throws IOException {
+		if( length > 0 && chain[length - 1].hasRemaining() ) {
+			return chain[length - 1];
+		}
+		if( length == CHAIN_LENGTH ) {
+			flush();
+		}
+		chain[length] = acquire();
+		return chain[length++];
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if( length == 0 ) {
+			return;
+		}
+		long remaining = 0;
+		for( int i = 0; i < length; i++ ) {
+			chain[i].flip();
+			remaining += chain[i].remaining();
+		}
+		try {
+			while( remaining > 0 ) {
+				remaining -= target.write( chain, 0, length );
+			}
+		} finally {
+			for( int i = 0; i < length; i++ ) {
+				release( chain[i] );
+				chain[i] = null;
+			}
+			length = 0;
+		}
+	}
+
+	@Override
+	public void write( byte [] b, int off, int len ) throws IOException {
+		while( len > 0 ) {
+			ByteBuffer buffer = current();
+			int n = Math.min( len, buffer.remaining() );
+			buffer.put( b, off, n );
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write( int b ) throws IOException {
+		current().put( (byte) b );
+	}
+
+}
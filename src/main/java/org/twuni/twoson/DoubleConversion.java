@@ -0,0 +1,183 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.math.BigInteger;
+
+/**
+ * Converts decimal significands and exponents to the nearest double without going through a
+ * string. Small cases are exact in double arithmetic (Clinger's fast path); the rest use the
+ * Eisel-Lemire algorithm, which multiplies by a 128-bit truncated power of five and gives up on
+ * the rare inputs where the truncation could affect rounding.
+ */
+final class DoubleConversion {
+
+	static final int MIN_EXPONENT = -342;
+	static final int MAX_EXPONENT = 308;
+
+	private static final double [] POWERS_OF_TEN = {
+		1e0,
+		1e1,
+		1e2,
+		1e3,
+		1e4,
+		1e5,
+		1e6,
+		1e7,
+		1e8,
+		1e9,
+		1e10,
+		1e11,
+		1e12,
+		1e13,
+		1e14,
+		1e15,
+		1e16,
+		1e17,
+		1e18,
+		1e19,
+		1e20,
+		1e21,
+		1e22
+	};
+
+	private static final long [] POWERS_OF_FIVE_HIGH = new long [MAX_EXPONENT - MIN_EXPONENT + 1];
+	private static final long [] POWERS_OF_FIVE_LOW = new long [MAX_EXPONENT - MIN_EXPONENT + 1];
+
+	static {
+		BigInteger two128 = BigInteger.ONE.shiftLeft( 128 );
+		for( int q = MIN_EXPONENT; q <= MAX_EXPONENT; q++ ) {
+			BigInteger power;
+			if( q < 0 ) {
+				BigInteger power5 = BigInteger.valueOf( 5 ).pow( -q );
+				int z = power5.subtract( BigInteger.ONE ).bitLength();
+				int b = q >= -27 ? z + 127 : 2 * z + 128;
+				power = BigInteger.ONE.shiftLeft( b ).divide( power5 ).add( BigInteger.ONE );
+				if( power.compareTo( two128 ) >= 0 ) {
+					power = power.shiftRight( power.bitLength() - 128 );
+				}
+			} else {
+				power = BigInteger.valueOf( 5 ).pow( q );
+				power = power.shiftLeft( 128 - power.bitLength() );
+			}
+			POWERS_OF_FIVE_HIGH[q - MIN_EXPONENT] = power.shiftRight( 64 ).longValue();
+			POWERS_OF_FIVE_LOW[q - MIN_EXPONENT] = power.longValue();
+		}
+	}
+
+	private static boolean isUnsignedGreater( long a, long b ) {
+		return ( a ^ Long.MIN_VALUE ) > ( b ^ Long.MIN_VALUE );
+	}
+
+	/**
+	 * @return the high 64 bits of the unsigned 128-bit product of the given values.
+	 */
+	static long multiplyHighUnsigned( long x, long y ) {
+		long x1 = x >> 32;
+		long x2 = x & 0xFFFFFFFFL;
+		long y1 = y >> 32;
+		long y2 = y & 0xFFFFFFFFL;
+		long z2 = x2 * y2;
+		long t = x1 * y2 + ( z2 >>> 32 );
+		long z1 = ( t & 0xFFFFFFFFL ) + x2 * y1;
+		long z0 = t >> 32;
+		long signed = x1 * y1 + z0 + ( z1 >> 32 );
+		return signed + ( x >> 63 & y ) + ( y >> 63 & x );
+	}
+
+	/**
+	 * @param negative
+	 *            whether the value is negative.
+	 * @param significand
+	 *            the decimal significand, as an unsigned value.
+	 * @param exponent
+	 *            the power of ten by which to scale the significand.
+	 * @return the double nearest to the given decimal value, or {@link Double#NaN} if it cannot be
+	 *         determined without arbitrary-precision arithmetic, in which case the caller should fall
+	 *         back to {@link Double#parseDouble(String)}.
+	 */
+	static double toDouble( boolean negative, long significand, int exponent ) {
+
+		if( significand == 0 || exponent < MIN_EXPONENT ) {
+			return negative ? -0.0 : 0.0;
+		}
+
+		if( exponent > MAX_EXPONENT ) {
+			return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+
+		if( 0 < significand && significand <= 1L << 53 && -22 <= exponent && exponent <= 22 ) {
+			double value = significand;
+			value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+
+		int index = exponent - MIN_EXPONENT;
+		int leadingZeros = Long.numberOfLeadingZeros( significand );
+		long w = significand << leadingZeros;
+
+		long high = multiplyHighUnsigned( w, POWERS_OF_FIVE_HIGH[index] );
+		long low = w * POWERS_OF_FIVE_HIGH[index];
+
+		if( ( high & 0x1FF ) == 0x1FF ) {
+			long correction = multiplyHighUnsigned( w, POWERS_OF_FIVE_LOW[index] );
+			low += correction;
+			if( isUnsignedGreater( correction, low ) ) {
+				high++;
+			}
+			if( low == -1L ) {
+				return Double.NaN;
+			}
+		}
+
+		int upperBit = (int) ( high >>> 63 );
+		long mantissa = high >>> upperBit + 9;
+		leadingZeros += 1 ^ upperBit;
+
+		if( low == 0 && ( high & 0x1FF ) == 0 && ( mantissa & 3 ) == 1 ) {
+			return Double.NaN;
+		}
+
+		mantissa += mantissa & 1;
+		mantissa >>>= 1;
+		if( mantissa >= 1L << 53 ) {
+			mantissa = 1L << 52;
+			leadingZeros--;
+		}
+		mantissa &= ~( 1L << 52 );
+
+		long biasedExponent = ( ( 152170L + 65536L ) * exponent >> 16 ) + 1024 + 63 - leadingZeros;
+		if( biasedExponent < 1 || biasedExponent > 2046 ) {
+			return Double.NaN;
+		}
+
+		double value = Double.longBitsToDouble( mantissa | biasedExponent << 52 );
+		return negative ? -value : value;
+
+	}
+
+	private DoubleConversion() {
+		// Static utility.
+	}
+
+}
@@ -26,8 +26,34 @@ public class IllegalFormatException extends IllegalStateException {
 
 	private static final long serialVersionUID = 1L;
 
+	private final long position;
+
 	public IllegalFormatException( byte c, String state ) {
-		super( "illegal character '" + Character.valueOf( (char) c ) + "' for state " + state );
+		this( c, state, -1 );
+	}
+
+	/**
+	 * @param position
+	 *            the offending byte's position in the input, counted from the start of the document.
+	 */
+	public IllegalFormatException( byte c, String state, long position ) {
+		this( "illegal character '" + Character.valueOf( (char) c ) + "' for state " + state, position );
+	}
+
+	public IllegalFormatException( String message ) {
+		this( message, -1 );
+	}
+
+	public IllegalFormatException( String message, long position ) {
+		super( position >= 0 ? message + " at position " + position : message );
+		this.position = position;
+	}
+
+	/**
+	 * @return the position in the input at which the error was found, or -1 if it is not known.
+	 */
+	public long getPosition() {
+		return position;
 	}
 
 }
@@ -0,0 +1,433 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the elements of one large top-level array in parallel. The array is split at commas that
+ * look like they separate its elements: between the end of one object or array and the start of the
+ * next, preferring those followed by the first key of the first element. Each piece is parsed on the
+ * executor as a run of elements.
+ * 
+ * A guess is proven by the piece before it, which must parse cleanly and end exactly at the comma,
+ * outside any string and with every object and array closed. The first piece starts just after the
+ * opening bracket, so proofs chain from there. When a piece fails, the calling thread parses on from
+ * the last proven boundary until it reaches the start of a later piece cleanly, and carries on from
+ * there; errors in the input surface from that parse with their true positions.
+ * 
+ * Elements are delivered in order, from the calling thread, or stitched into one array.
+ */
+public final class JSONElements {
+
+	/**
+	 * Parses the elements between two guessed boundaries, holding them for delivery in order.
+	 */
+	private static final class Chunk implements Callable<Chunk> {
+
+		private final ByteBuffer source;
+		private final int from;
+		private final int to;
+		private final boolean last;
+		private int [] stops;
+		private int horizon = Integer.MAX_VALUE;
+		private int end;
+		private Future<Chunk> future;
+		private long [] positions;
+		private JSONValue [] records;
+		private int size;
+
+		public Chunk( ByteBuffer source, int from, int to ) {
+			this.source = source;
+			this.from = from;
+			this.to = to;
+			last = to == source.limit();
+		}
+
+		private void add( long position, JSONValue record ) {
+			if( records == null ) {
+				positions = new long [64];
+				records = new JSONValue [64];
+			} else if( size == records.length ) {
+				positions = Arrays.copyOf( positions, size << 1 );
+				records = Arrays.copyOf( records, size << 1 );
+			}
+			positions[size] = position;
+			records[size] = record;
+			size++;
+		}
+
+		/**
+		 * Waits for this chunk to be parsed, or parses it now if it was not submitted.
+		 * 
+		 * @return false if it could not be parsed from where it was guessed to start.
+		 */
+		public boolean await() throws IOException {
+			if( future == null ) {
+				call();
+				return true;
+			}
+			try {
+				JSONLines.await( future );
+				return true;
+			} catch( RuntimeException exception ) {
+				return false;
+			}
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			JSONParser parser = PARSERS.get();
+			JSONValueBuilder builder = new JSONValueBuilder();
+			ByteBuffer range = source.duplicate();
+			range.limit( to );
+			range.position( from );
+			parser.reset( range, builder );
+			parser.setPosition( from );
+			parser.openArray();
+			try {
+				while( true ) {
+					int i = skipWhitespace( source, (int) parser.position(), to );
+					if( i > from && isStop( i ) ) {
+						end = i;
+						return this;
+					}
+					int start = i < to && source.get( i ) == ',' ? skipWhitespace( source, i + 1, to ) : i;
+					byte token = parser.nextToken();
+					if( token == JSONParser.END_OF_INPUT && !last ) {
+						end = to;
+						return this;
+					}
+					if( token == JSONParser.END_ARRAY ) {
+						if( !last || skipWhitespace( source, (int) parser.position(), to ) < to ) {
+							throw new IllegalFormatException( "unexpected end of array", parser.position() - 1 );
+						}
+						end = to;
+						return this;
+					}
+					for( int depth = 0;; token = parser.nextToken() ) {
+						switch( token ) {
+							case JSONParser.END_OF_INPUT:
+								throw new IllegalFormatException( "unexpected end of input", to );
+							case JSONParser.BEGIN_ARRAY:
+							case JSONParser.BEGIN_OBJECT:
+								depth++;
+								break;
+							case JSONParser.END_ARRAY:
+							case JSONParser.END_OBJECT:
+								depth--;
+								break;
+							default:
+								break;
+						}
+						parser.emit( token );
+						if( depth == 0 ) {
+							break;
+						}
+					}
+					add( start, builder.getResult() );
+				}
+			} finally {
+				parser.close();
+			}
+		}
+
+		public void cancel() {
+			if( future != null ) {
+				future.cancel( true );
+			}
+		}
+
+		public void deliver( JSONRecordListener listener ) {
+			for( int i = 0; i < size; i++ ) {
+				listener.onRecord( positions[i], records[i] );
+			}
+		}
+
+		/**
+		 * @return true if parsing may stop at the given index, which lies between two elements.
+		 */
+		private boolean isStop( int index ) {
+			if( index >= horizon ) {
+				return index < to && source.get( index ) == ',';
+			}
+			return stops != null && Arrays.binarySearch( stops, index ) >= 0;
+		}
+
+		/**
+		 * Lets this chunk stop at the start of any of the given chunks, or at any comma between
+		 * elements from the given index on.
+		 */
+		public void resync( LinkedList<Chunk> pending, int horizon ) {
+			stops = new int [pending.size()];
+			int i = 0;
+			for( Chunk chunk : pending ) {
+				stops[i++] = chunk.from;
+			}
+			this.horizon = horizon;
+		}
+
+	}
+
+	/**
+	 * Collects elements into an array.
+	 */
+	private static final class Collector implements JSONRecordListener {
+
+		private JSONValue [] elements = new JSONValue [64];
+		private int size;
+
+		@Override
+		public void onRecord( long position, JSONValue record ) {
+			if( size == elements.length ) {
+				elements = Arrays.copyOf( elements, size << 1 );
+			}
+			elements[size++] = record;
+		}
+
+		public JSONValue toArray() {
+			return new JSONValue( Arrays.copyOf( elements, size ) );
+		}
+
+	}
+
+	/**
+	 * The number of bytes parsed by each task, give or take the rest of the element it ends on.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private static final int MAXIMUM_SIGNATURE_LENGTH = 64;
+
+	private static final ThreadLocal<JSONParser> PARSERS = new ThreadLocal<JSONParser>() {
+
+		@Override
+		protected JSONParser initialValue() {
+			return new JSONParser();
+		}
+
+	};
+
+	/**
+	 * @return the index of the first comma at or after the given index that looks like it separates
+	 *         two elements of the array, or {@code to} if there is none. Commas followed by the
+	 *         signature are preferred over others within the given span.
+	 */
+	private static int guess( ByteBuffer source, int from, int to, byte [] signature, int span ) {
+		if( signature != null ) {
+			int limit = to - from > span ? from + span : to;
+			for( int i = from; i < limit; i++ ) {
+				if( isSeparator( source, i ) && matches( source, skipWhitespace( source, i + 1, to ), to, signature ) ) {
+					return i;
+				}
+			}
+		}
+		for( int i = from; i < to; i++ ) {
+			if( isSeparator( source, i ) ) {
+				int next = skipWhitespace( source, i + 1, to );
+				if( next < to && ( source.get( next ) == '{' || source.get( next ) == '[' ) ) {
+					return i;
+				}
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * @return true if the byte at the given index is a comma following the end of an object or array.
+	 */
+	private static boolean isSeparator( ByteBuffer source, int index ) {
+		if( source.get( index ) != ',' ) {
+			return false;
+		}
+		for( int i = index - 1; i >= 0; i-- ) {
+			switch( source.get( i ) ) {
+				case ' ':
+				case '\t':
+				case '\r':
+				case '\n':
+					break;
+				case '}':
+				case ']':
+					return true;
+				default:
+					return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if an object starts at the given index with the given key.
+	 */
+	private static boolean matches( ByteBuffer source, int index, int to, byte [] signature ) {
+		if( index >= to || source.get( index ) != '{' ) {
+			return false;
+		}
+		int start = skipWhitespace( source, index + 1, to );
+		if( to - start < signature.length ) {
+			return false;
+		}
+		for( int i = 0; i < signature.length; i++ ) {
+			if( source.get( start + i ) != signature[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static JSONValue parse( byte [] in, ExecutorService executor ) throws IOException {
+		return parse( ByteBuffer.wrap( in ), executor );
+	}
+
+	/**
+	 * Delivers the elements of the array to the listener in order, from the calling thread.
+	 * Positions are counted from the start of the array.
+	 * 
+	 * @param executor
+	 *            the executor on which to parse pieces of the array, such as a fork-join pool, or null
+	 *            to parse it all on the calling thread.
+	 */
+	public static void parse( byte [] in, ExecutorService executor, JSONRecordListener listener ) throws IOException {
+		parse( ByteBuffer.wrap( in ), executor, listener );
+	}
+
+	/**
+	 * Parses the remaining bytes of the given buffer, which must hold an array, moving its position to
+	 * its limit.
+	 * 
+	 * @return the array, stitched together from its elements.
+	 */
+	public static JSONValue parse( ByteBuffer in, ExecutorService executor ) throws IOException {
+		Collector collector = new Collector();
+		parse( in, executor, collector );
+		return collector.toArray();
+	}
+
+	/**
+	 * Parses the remaining bytes of the given buffer, which must hold an array, moving its position to
+	 * its limit. Positions are counted from the buffer's position. A buffer backed by an array is
+	 * parsed in place; a direct buffer is read through each parser's chunk.
+	 */
+	public static void parse( ByteBuffer in, ExecutorService executor, JSONRecordListener listener ) throws IOException {
+		ByteBuffer source = in.slice();
+		parse( source, DEFAULT_CHUNK_SIZE, executor, listener );
+		in.position( in.limit() );
+	}
+
+	/**
+	 * Parses the given buffer from its start to its limit, keeping enough pieces in flight to occupy
+	 * every processor, but not so many that elements held for delivery in order pile up.
+	 */
+	static void parse( ByteBuffer source, int chunkSize, ExecutorService executor, JSONRecordListener listener ) throws IOException {
+		int to = source.limit();
+		int open = skipWhitespace( source, 0, to );
+		if( open == to || source.get( open ) != '[' ) {
+			throw new IllegalFormatException( "expected an array", open );
+		}
+		byte [] signature = signature( source, skipWhitespace( source, open + 1, to ), to );
+		int window = 2 * Runtime.getRuntime().availableProcessors();
+		LinkedList<Chunk> pending = new LinkedList<Chunk>();
+		try {
+			for( int next = open + 1; next < to || !pending.isEmpty(); ) {
+				while( next < to && pending.size() < window ) {
+					int end = executor == null || to - next <= chunkSize ? to : guess( source, next + chunkSize, to, signature, chunkSize );
+					Chunk chunk = new Chunk( source, next, end );
+					if( executor != null ) {
+						chunk.future = executor.submit( chunk );
+					}
+					pending.add( chunk );
+					next = end;
+				}
+				Chunk chunk = pending.removeFirst();
+				if( !chunk.await() ) {
+					chunk = new Chunk( source, chunk.from, to );
+					chunk.resync( pending, next );
+					chunk.call();
+					while( !pending.isEmpty() && pending.getFirst().from < chunk.end ) {
+						pending.removeFirst().cancel();
+					}
+					next = Math.max( next, chunk.end );
+				}
+				chunk.deliver( listener );
+			}
+		} finally {
+			for( Chunk chunk : pending ) {
+				chunk.cancel();
+			}
+		}
+	}
+
+	/**
+	 * @return the quoted first key of the object starting at the given index, or null if there is no such object or its key is unusually long.
+	 */
+	private static byte [] signature( ByteBuffer source, int index, int to ) {
+		if( index >= to || source.get( index ) != '{' ) {
+			return null;
+		}
+		int start = skipWhitespace( source, index + 1, to );
+		if( start >= to || source.get( start ) != '"' ) {
+			return null;
+		}
+		int limit = Math.min( to, start + MAXIMUM_SIGNATURE_LENGTH );
+		for( int i = start + 1; i < limit; i++ ) {
+			byte c = source.get( i );
+			if( c == '\\' ) {
+				return null;
+			}
+			if( c == '"' ) {
+				byte [] signature = new byte [i + 1 - start];
+				for( int j = 0; j < signature.length; j++ ) {
+					signature[j] = source.get( start + j );
+				}
+				return signature;
+			}
+		}
+		return null;
+	}
+
+	private static int skipWhitespace( ByteBuffer source, int from, int to ) {
+		for( int i = from; i < to; i++ ) {
+			switch( source.get( i ) ) {
+				case ' ':
+				case '\t':
+				case '\r':
+				case '\n':
+					break;
+				default:
+					return i;
+			}
+		}
+		return to;
+	}
+
+	private JSONElements() {
+		// Static utility.
+	}
+
+}
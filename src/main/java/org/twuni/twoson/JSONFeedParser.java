@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Parses a document that arrives a piece at a time, as from a non-blocking socket, without a thread
+ * waiting on it in between. Each piece is parsed as soon as it is fed, and events are sent for every
+ * token it completes. A token left unfinished at the end of a piece is carried over, as raw bytes,
+ * until the piece that finishes it arrives; its scopes are kept by the parser. The same parser may be
+ * reset and fed document after document.
+ * 
+ * Pieces are scanned in place where possible, so slices sent to the listener are only valid for the
+ * duration of the callback.
+ */
+public final class JSONFeedParser {
+
+	private static final byte [] EMPTY = new byte [0];
+
+	private final JSONParser parser = new JSONParser();
+	private byte [] carry = new byte [256];
+	private int carryLength;
+	private int carryHighWaterMark;
+	private long position;
+	private boolean inString;
+	private boolean open;
+	private boolean started;
+
+	public JSONFeedParser( JSONEventListener listener ) {
+		reset( listener );
+	}
+
+	/**
+	 * Appends the given bytes to those carried over from earlier pieces.
+	 */
+	private void carry( byte [] buffer, int offset, int length ) {
+		if( carryLength + length > carry.length ) {
+			byte [] grown = Arrays.copyOf( carry, Math.max( carry.length << 1, carryLength + length ) );
+			Arrays.fill( carry, 0, carryLength, (byte) 0 );
+			carry = grown;
+		}
+		System.arraycopy( buffer, offset, carry, carryLength, length );
+		carryLength += length;
+		carryHighWaterMark = Math.max( carryHighWaterMark, carryLength );
+	}
+
+	private void close() {
+		open = false;
+		parser.close();
+		Arrays.fill( carry, 0, carryHighWaterMark, (byte) 0 );
+		carryHighWaterMark = 0;
+		carryLength = 0;
+		inString = false;
+	}
+
+	/**
+	 * Parses whatever is left of the document and releases everything held for it, burning the bytes
+	 * carried over. A document that is empty, or that ends inside a token, object or array, is reported
+	 * as an error.
+	 */
+	public void endOfInput() throws IOException {
+		ensureOpen();
+		try {
+			parse( carry, 0, carryLength, true, carryLength );
+			if( !started ) {
+				throw new IllegalFormatException( "no value", position );
+			}
+			if( parser.depth() > 0 ) {
+				throw new IllegalFormatException( "unexpected end of input", position );
+			}
+		} finally {
+			close();
+		}
+	}
+
+	private void ensureOpen() {
+		if( !open ) {
+			throw new IllegalStateException( "no document is being fed" );
+		}
+	}
+
+	/**
+	 * Parses the next piece of the document, sending events for every token it completes before
+	 * returning.
+	 */
+	public void feed( byte [] buffer, int offset, int length ) throws IOException {
+		ensureOpen();
+		try {
+			if( carryLength > 0 ) {
+				int from = carryLength;
+				carry( buffer, offset, length );
+				if( inString && !hasQuote( from ) ) {
+					return;
+				}
+				int consumed = parse( carry, 0, carryLength, false, from );
+				if( consumed < from ) {
+					System.arraycopy( carry, consumed, carry, 0, carryLength - consumed );
+					Arrays.fill( carry, carryLength - consumed, carryLength, (byte) 0 );
+					carryLength -= consumed;
+					inString = isString();
+					return;
+				}
+				Arrays.fill( carry, 0, carryLength, (byte) 0 );
+				carryLength = 0;
+				offset += consumed - from;
+				length -= consumed - from;
+			}
+			int consumed = parse( buffer, offset, length, false, length );
+			carry( buffer, offset + consumed, length - consumed );
+			inString = isString();
+		} catch( IOException exception ) {
+			close();
+			throw exception;
+		} catch( RuntimeException exception ) {
+			close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return the position in the document of the next byte to be parsed.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Checks whether the bytes carried over since the given index could finish the string they follow,
+	 * so that a long string fed a little at a time is not scanned again for every piece.
+	 */
+	private boolean hasQuote( int from ) {
+		for( int i = from; i < carryLength; i++ ) {
+			if( carry[i] == '"' ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the token carried over is a string.
+	 */
+	private boolean isString() {
+		for( int i = 0; i < carryLength; i++ ) {
+			switch( carry[i] ) {
+				case ' ':
+				case '\t':
+				case '\r':
+				case '\n':
+				case ',':
+				case ':':
+					break;
+				case '"':
+					return true;
+				default:
+					return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the tokens in the given range until the given number of bytes has been parsed, or the
+	 * range runs out of complete tokens.
+	 * 
+	 * @return the number of bytes parsed, which may exceed the number asked for by the rest of the last
+	 *         token.
+	 */
+	private int parse( byte [] buffer, int offset, int length, boolean last, int enough ) throws IOException {
+		parser.resume( buffer, offset, length, position );
+		long end = position + enough;
+		for( byte token = parser.nextFedToken( last ); token != JSONParser.END_OF_INPUT; token = parser.nextFedToken( last ) ) {
+			parser.emit( token );
+			started = true;
+			if( parser.position() >= end ) {
+				break;
+			}
+		}
+		int consumed = (int) ( parser.position() - position );
+		position += consumed;
+		return consumed;
+	}
+
+	/**
+	 * Prepares to parse a new document, abandoning any that is being fed.
+	 */
+	public void reset( JSONEventListener listener ) {
+		if( open ) {
+			close();
+		}
+		parser.reset( EMPTY, 0, 0, listener );
+		parser.open();
+		position = 0;
+		open = true;
+		started = false;
+	}
+
+	/**
+	 * @see JSONParser#setMaximumDepth(int)
+	 */
+	public void setMaximumDepth( int maximumDepth ) {
+		parser.setMaximumDepth( maximumDepth );
+	}
+
+}
@@ -22,28 +22,97 @@
  */
 package org.twuni.twoson;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
 import java.util.Arrays;
 
-public class JSONGenerator {
+/**
+ * Writes JSON to an output stream through a buffer of its own, so the stream sees a few large writes
+ * rather than one for every byte. Call {@link #flush()} to push what has been written so far to the
+ * stream, or {@link #close()} when done. The buffer is burned as it is drained, and on close it is
+ * kept by the closing thread for the next generator it creates, so serializing one response after
+ * another allocates no buffers.
+ */
+public class JSONGenerator implements Closeable, Flushable {
 
 	private static final byte [] TRUE = JSONUtils.toByteArray( "true" );
 	private static final byte [] FALSE = JSONUtils.toByteArray( "false" );
 	private static final byte [] NULL = JSONUtils.toByteArray( "null" );
 	private static final byte [] INDENT = JSONUtils.toByteArray( "    " );
 	private static final byte [] NEW_LINE = JSONUtils.toByteArray( "\n" );
+	private static final byte [] HEX = JSONUtils.toByteArray( "0123456789abcdef" );
+
+	/**
+	 * For each byte, the letter that follows the backslash in its escape sequence, or 0 if it needs
+	 * none. Control characters without a short form get a Unicode escape, as does every byte of a UTF-8
+	 * sequence in {@link #ASCII_ESCAPES}.
+	 */
+	private static final byte [] ESCAPES = new byte [256];
+	private static final byte [] ASCII_ESCAPES = new byte [256];
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final ThreadLocal<byte []> BUFFERS = new ThreadLocal<byte []>();
+
+	static {
+		for( int c = 0; c < 0x20; c++ ) {
+			ESCAPES[c] = 'u';
+		}
+		ESCAPES['"'] = '"';
+		ESCAPES['\\'] = '\\';
+		ESCAPES['\b'] = 'b';
+		ESCAPES['\f'] = 'f';
+		ESCAPES['\n'] = 'n';
+		ESCAPES['\r'] = 'r';
+		ESCAPES['\t'] = 't';
+		System.arraycopy( ESCAPES, 0, ASCII_ESCAPES, 0, 0x80 );
+		Arrays.fill( ASCII_ESCAPES, 0x80, 0x100, (byte) 'u' );
+	}
 
 	private static void burn( byte [] buffer ) {
 		Arrays.fill( buffer, (byte) 0 );
 	}
 
+	/**
+	 * Serializes the given object key once, quoted, escaped and followed by its colon, for
+	 * {@link #writeKey(JSONToken)} to copy out in one piece each time it is written. Characters beyond
+	 * ASCII are kept as UTF-8, even for generators set to {@link #setAsciiOnly(boolean) ASCII only}.
+	 */
+	public static JSONToken token( String key ) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		try {
+			generator.writeKey( key );
+			generator.release();
+		} catch( IOException exception ) {
+			throw new IllegalStateException( exception );
+		}
+		return new JSONToken( out.toByteArray() );
+	}
+
 	private boolean pretty = false;
+	private boolean asciiOnly;
 	private int indentationLevel;
 	private final OutputStream out;
+	private byte [] buffer;
+	private int size;
+	private ByteBuffer view;
+	private JSONValue [] containers;
+	private int [] cursors;
 
 	public JSONGenerator( OutputStream out ) {
 		this.out = out;
+		buffer = BUFFERS.get();
+		if( buffer != null ) {
+			BUFFERS.set( null );
+		} else {
+			buffer = new byte [BUFFER_SIZE];
+		}
 	}
 
 	public JSONGenerator( OutputStream out, boolean pretty ) {
@@ -56,75 +125,371 @@ public class JSONGenerator {
 		this.indentationLevel = indentationLevel;
 	}
 
+	/**
+	 * Writes into the given buffer, which may be direct, from its position on. Once the generator is
+	 * flushed or closed, the buffer's position is just past what was written. A buffer that fills up
+	 * makes the write fail with a {@link java.nio.BufferOverflowException}.
+	 * 
+	 * Output is staged in this generator's heap buffer as usual and copied into the target each time
+	 * that fills, so it reaches the target one copy after it is formatted.
+	 */
+	public JSONGenerator( ByteBuffer target ) {
+		this( target, null );
+	}
+
+	/**
+	 * Writes into the given buffer, which may be direct, from its position on, asking the listener for
+	 * room whenever the buffer fills up.
+	 */
+	public JSONGenerator( ByteBuffer target, JSONOverflowListener listener ) {
+		this( new ByteBufferOutputStream( target, listener ) );
+	}
+
+	/**
+	 * Writes to the given channel through a chain of pooled direct buffers, which is handed to the
+	 * channel in one gathering write on {@link #flush()}, or sooner once a megabyte has built up.
+	 * Output is copied once into those buffers from this generator's heap buffer. Closing the
+	 * generator writes out what is left but leaves the channel open.
+	 */
+	public JSONGenerator( GatheringByteChannel target ) {
+		this( new ChannelOutputStream( target ) );
+	}
+
+	/**
+	 * Flushes everything written and closes the underlying stream. The buffer is handed back for reuse
+	 * by this thread, and nothing more may be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if( buffer == null ) {
+			return;
+		}
+		try {
+			release();
+		} finally {
+			out.close();
+		}
+	}
+
 	public void closeArray() throws IOException {
 		indentationLevel--;
 		newLine();
-		out.write( ']' );
+		put( (byte) ']' );
 	}
 
 	public void closeObject() throws IOException {
 		indentationLevel--;
 		newLine();
-		out.write( '}' );
+		put( (byte) '}' );
+	}
+
+	/**
+	 * Writes out the buffer, burning it afterwards.
+	 */
+	private void drain() throws IOException {
+		if( size > 0 ) {
+			out.write( buffer, 0, size );
+			Arrays.fill( buffer, 0, size, (byte) 0 );
+			size = 0;
+		}
+	}
+
+	/**
+	 * Fails if the generator has been closed or released, and so has no buffer to write into.
+	 */
+	private void ensureOpen() throws IOException {
+		if( buffer == null ) {
+			throw new IOException( "JSONGenerator is closed" );
+		}
+	}
+
+	/**
+	 * Writes the escape sequence for the byte at the given index or, if it starts a UTF-8 sequence, for
+	 * the character that sequence encodes. Malformed sequences are written as U+FFFD a byte at a time.
+	 * 
+	 * @return the index just past what was escaped.
+	 */
+	private int escape( byte [] value, int index, int end, byte escape ) throws IOException {
+		reserve( 12 );
+		int c = value[index] & 0xFF;
+		if( escape != 'u' ) {
+			buffer[size++] = '\\';
+			buffer[size++] = escape;
+			return index + 1;
+		}
+		if( c < 0x80 ) {
+			putUnicodeEscape( c );
+			return index + 1;
+		}
+		int length = c >= 0xF8 ? 1 : c >= 0xF0 ? 4 : c >= 0xE0 ? 3 : c >= 0xC0 ? 2 : 1;
+		if( length == 1 || index + length > end ) {
+			putUnicodeEscape( 0xFFFD );
+			return index + 1;
+		}
+		int codePoint = c & 0x7F >> length;
+		for( int i = 1; i < length; i++ ) {
+			int b = value[index + i] & 0xFF;
+			if( ( b & 0xC0 ) != 0x80 ) {
+				putUnicodeEscape( 0xFFFD );
+				return index + 1;
+			}
+			codePoint = codePoint << 6 | b & 0x3F;
+		}
+		if( codePoint >= 0x10000 ) {
+			putUnicodeEscape( 0xD800 | codePoint - 0x10000 >> 10 );
+			putUnicodeEscape( 0xDC00 | codePoint & 0x3FF );
+		} else {
+			putUnicodeEscape( codePoint );
+		}
+		return index + length;
+	}
+
+	/**
+	 * Writes out everything written so far and flushes the underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		out.flush();
 	}
 
 	public void indent() throws IOException {
 		if( pretty ) {
 			for( int i = 0; i < indentationLevel; i++ ) {
-				out.write( INDENT );
+				put( INDENT, 0, INDENT.length );
 			}
 		}
 	}
 
 	public void newLine() throws IOException {
 		if( pretty ) {
-			out.write( NEW_LINE );
+			put( NEW_LINE, 0, NEW_LINE.length );
 			indent();
 		}
 	}
 
 	public void next() throws IOException {
-		out.write( ',' );
+		put( (byte) ',' );
 		newLine();
 	}
 
 	public void openArray() throws IOException {
-		out.write( '[' );
+		put( (byte) '[' );
 		indentationLevel++;
 		newLine();
 	}
 
 	public void openObject() throws IOException {
-		out.write( '{' );
+		put( (byte) '{' );
 		indentationLevel++;
 		newLine();
 	}
 
+	private void put( byte c ) throws IOException {
+		ensureOpen();
+		if( size == buffer.length ) {
+			drain();
+		}
+		buffer[size++] = c;
+	}
+
+	/**
+	 * Copies the given bytes into the buffer, or writes them straight through if they would not fit
+	 * even in an empty one.
+	 */
+	private void put( byte [] b, int off, int len ) throws IOException {
+		ensureOpen();
+		if( len > buffer.length - size ) {
+			drain();
+			if( len >= buffer.length ) {
+				out.write( b, off, len );
+				return;
+			}
+		}
+		System.arraycopy( b, off, buffer, size, len );
+		size += len;
+	}
+
+	/**
+	 * Writes a Unicode escape for the given UTF-16 code unit. The caller makes room for it.
+	 */
+	private void putUnicodeEscape( int unit ) {
+		buffer[size++] = '\\';
+		buffer[size++] = 'u';
+		buffer[size++] = HEX[unit >> 12 & 0xF];
+		buffer[size++] = HEX[unit >> 8 & 0xF];
+		buffer[size++] = HEX[unit >> 4 & 0xF];
+		buffer[size++] = HEX[unit & 0xF];
+	}
+
+	/**
+	 * Drains the buffer if fewer than the given number of bytes are left in it.
+	 */
+	private void reserve( int length ) throws IOException {
+		ensureOpen();
+		if( buffer.length - size < length ) {
+			drain();
+		}
+	}
+
+	/**
+	 * Flushes everything written and hands the buffer back for reuse by this thread, but leaves the
+	 * underlying stream open. Nothing more may be written.
+	 */
+	void release() throws IOException {
+		if( buffer == null ) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			BUFFERS.set( buffer );
+			buffer = null;
+			containers = null;
+			cursors = null;
+		}
+	}
+
+	/**
+	 * @return the index of the first byte in the given range that needs escaping, or {@code end} if
+	 *         there is none. Long runs are skipped a word at a time when only the quote, backslash and
+	 *         control characters need escaping.
+	 */
+	private int scan( byte [] value, int from, int end, byte [] escapes ) {
+		if( escapes == ESCAPES && end - from >= 16 ) {
+			return WordScanner.indexOfSpecial( view( value ), value, from, end );
+		}
+		for( int i = from; i < end; i++ ) {
+			if( escapes[value[i] & 0xFF] != 0 ) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Sets whether strings are written in ASCII alone, with every other character written as a Unicode
+	 * escape, or a pair of them outside the Basic Multilingual Plane. Off by default, in which case
+	 * UTF-8 is copied through as it is.
+	 */
+	public void setAsciiOnly( boolean asciiOnly ) {
+		this.asciiOnly = asciiOnly;
+	}
+
 	public void write( boolean value ) throws IOException {
-		out.write( value ? TRUE : FALSE );
+		byte [] b = value ? TRUE : FALSE;
+		put( b, 0, b.length );
 	}
 
+	/**
+	 * Writes the given value with the fewest digits that read back as the same double.
+	 */
 	public void write( double value ) throws IOException {
-		out.write( Double.toString( value ).getBytes() );
+		reserve( NumberFormatting.MAXIMUM_LENGTH );
+		size = NumberFormatting.writeDouble( buffer, size, value );
 	}
 
+	/**
+	 * Writes the given value rounded half up to the given number of digits after the decimal point,
+	 * for when a fixed precision matters more than an exact round trip. Values of 2<sup>53</sup> or
+	 * more once scaled are written as {@link #write(double)} would write them.
+	 * 
+	 * @param fractionDigits
+	 *            between 0 and 17. With 0, no decimal point is written.
+	 */
+	public void write( double value, int fractionDigits ) throws IOException {
+		if( fractionDigits < 0 || fractionDigits > NumberFormatting.MAXIMUM_FRACTION_DIGITS ) {
+			throw new IllegalArgumentException( "Fraction digits must be between 0 and " + NumberFormatting.MAXIMUM_FRACTION_DIGITS + "." );
+		}
+		reserve( NumberFormatting.MAXIMUM_LENGTH );
+		size = NumberFormatting.writeFixed( buffer, size, value, fractionDigits );
+	}
+
+	/**
+	 * Writes the given value with the fewest digits that read back as the same float.
+	 */
 	public void write( float value ) throws IOException {
-		out.write( Float.toString( value ).getBytes() );
+		reserve( NumberFormatting.MAXIMUM_LENGTH );
+		size = NumberFormatting.writeFloat( buffer, size, value );
+	}
+
+	/**
+	 * Writes the given value and everything in it. Nested objects and arrays are walked with a stack of
+	 * their own rather than by recursion, so no depth is too great.
+	 */
+	public void write( JSONValue value ) throws IOException {
+		int depth = 0;
+		JSONValue current = value;
+		while( true ) {
+			if( current != null && ( current.type == JSONValue.Type.ARRAY || current.type == JSONValue.Type.OBJECT ) ) {
+				if( current.type == JSONValue.Type.ARRAY ) {
+					openArray();
+				} else {
+					openObject();
+				}
+				if( containers == null || depth == containers.length ) {
+					containers = containers == null ? new JSONValue [16] : Arrays.copyOf( containers, depth << 1 );
+					cursors = cursors == null ? new int [16] : Arrays.copyOf( cursors, depth << 1 );
+				}
+				containers[depth] = current;
+				cursors[depth] = 0;
+				depth++;
+			} else {
+				writeScalar( current );
+			}
+			while( true ) {
+				if( depth == 0 ) {
+					return;
+				}
+				JSONValue container = containers[depth - 1];
+				int index = cursors[depth - 1]++;
+				if( index < container.length() ) {
+					if( index > 0 ) {
+						next();
+					}
+					if( container.type == JSONValue.Type.OBJECT ) {
+						JSONObjectProperty property = container.objectValue[index];
+						writeKey( property.key );
+						current = property.value;
+					} else {
+						current = container.arrayValue[index];
+					}
+					break;
+				}
+				if( container.type == JSONValue.Type.OBJECT ) {
+					closeObject();
+				} else {
+					closeArray();
+				}
+				containers[--depth] = null;
+			}
+		}
 	}
 
 	public void write( int value ) throws IOException {
-		out.write( Integer.toString( value ).getBytes() );
+		write( (long) value );
 	}
 
 	public void write( long value ) throws IOException {
-		out.write( Long.toString( value ).getBytes() );
+		reserve( NumberFormatting.MAXIMUM_LENGTH );
+		size = NumberFormatting.writeLong( buffer, size, value );
 	}
 
 	public void writeKey( byte [] key ) throws IOException {
 		writeString( key );
-		out.write( ':' );
+		put( (byte) ':' );
+		if( pretty ) {
+			put( (byte) ' ' );
+		}
+	}
+
+	/**
+	 * Writes a key serialized by {@link #token(String)}.
+	 */
+	public void writeKey( JSONToken key ) throws IOException {
+		put( key.bytes, 0, key.bytes.length );
 		if( pretty ) {
-			out.write( ' ' );
+			put( (byte) ' ' );
 		}
 	}
 
@@ -133,7 +498,46 @@ public class JSONGenerator {
 	}
 
 	public void writeNull() throws IOException {
-		out.write( NULL );
+		put( NULL, 0, NULL.length );
+	}
+
+	/**
+	 * Writes the given bytes as they are, for inserting JSON that was serialized elsewhere. Nothing is
+	 * escaped or checked, and no separator is added.
+	 */
+	public void writeRaw( byte [] json ) throws IOException {
+		writeRaw( json, 0, json.length );
+	}
+
+	public void writeRaw( byte [] json, int offset, int length ) throws IOException {
+		put( json, offset, length );
+	}
+
+	private void writeScalar( JSONValue value ) throws IOException {
+		if( value == null ) {
+			writeNull();
+			return;
+		}
+		switch( value.type ) {
+			case BOOLEAN:
+				write( value.booleanValue );
+				break;
+			case DOUBLE:
+				write( value.doubleValue );
+				break;
+			case INTEGER:
+				write( value.intValue );
+				break;
+			case LONG:
+				write( value.longValue );
+				break;
+			case STRING:
+				writeString( value.stringValue );
+				break;
+			default:
+				writeNull();
+				break;
+		}
 	}
 
 	public void writeString( byte [] value ) throws IOException {
@@ -165,18 +569,16 @@ public class JSONGenerator {
 			writeNull();
 			return;
 		}
-		out.write( '"' );
-		for( int i = offset; i < length; i++ ) {
-			byte c = value[i];
-			switch( c ) {
-				case '"':
-				case '\\':
-					out.write( '\\' );
-					break;
-			}
-			out.write( c );
+		put( (byte) '"' );
+		byte [] escapes = asciiOnly ? ASCII_ESCAPES : ESCAPES;
+		int end = offset + length;
+		int start = offset;
+		for( int i = scan( value, start, end, escapes ); i < end; i = scan( value, start, end, escapes ) ) {
+			put( value, start, i - start );
+			start = escape( value, i, end, escapes[value[i] & 0xFF] );
 		}
-		out.write( '"' );
+		put( value, start, end - start );
+		put( (byte) '"' );
 		if( burnAfterwards ) {
 			burn( value );
 		}
@@ -186,4 +588,11 @@ public class JSONGenerator {
 		writeString( JSONUtils.toByteArray( value ) );
 	}
 
+	private ByteBuffer view( byte [] value ) {
+		if( view == null || view.array() != value ) {
+			view = ByteBuffer.wrap( value ).order( ByteOrder.LITTLE_ENDIAN );
+		}
+		return view;
+	}
+
 }
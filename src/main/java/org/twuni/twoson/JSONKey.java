@@ -0,0 +1,71 @@
+package org.twuni.twoson;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An object key whose UTF-8 encoding and hash are computed once, for looking up the same property
+ * in many documents. See {@link JSONValue#get(JSONKey)}.
+ */
+public final class JSONKey {
+
+	private static final int SEED;
+	private static final int MULTIPLIER;
+
+	static {
+		Random random = new Random();
+		SEED = random.nextInt();
+		MULTIPLIER = random.nextInt() | 1;
+	}
+
+	/**
+	 * Hashes a key with a starting value and an odd multiplier drawn at random for each JVM, then
+	 * finishes it with MurmurHash3's mixer. Unlike a fixed polynomial hash, under which keys such as
+	 * "Aa" and "BB" collide whatever the starting value, this gives input no way to choose colliding
+	 * keys ahead of time.
+	 */
+	static int hash( byte [] buffer, int offset, int length ) {
+		int hash = SEED;
+		for( int i = offset; i < offset + length; i++ ) {
+			hash = ( hash ^ buffer[i] & 0xFF ) * MULTIPLIER;
+		}
+		hash ^= length;
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		hash *= 0xC2B2AE35;
+		return hash ^ hash >>> 16;
+	}
+
+	final byte [] bytes;
+	final int hash;
+
+	public JSONKey( byte [] key ) {
+		this( key, true );
+	}
+
+	private JSONKey( byte [] key, boolean copy ) {
+		bytes = copy ? Arrays.copyOf( key, key.length ) : key;
+		hash = hash( bytes, 0, bytes.length );
+	}
+
+	public JSONKey( String key ) {
+		this( JSONUtils.toByteArray( key ), false );
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+		return o instanceof JSONKey && Arrays.equals( bytes, ( (JSONKey) o ).bytes );
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return JSONUtils.fromByteArray( bytes, 0, bytes.length );
+	}
+
+}
@@ -0,0 +1,392 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A value that is decoded from its source bytes only as far as it is used. Looking into an array or
+ * object scans it once to find where its children begin and end, skipping over nested values by
+ * matching brackets and quotes alone. Each child is created the first time it is reached, and kept
+ * afterwards. Subtrees that are never reached cost that one scan and nothing more.
+ * 
+ * The source is neither copied nor burned, so it must not change while its values are in use. Only
+ * the parts of a document that are reached are checked for errors; those that are not may be
+ * malformed without complaint. Values are not safe for concurrent use.
+ */
+public final class JSONLazyValue {
+
+	private static boolean isWhitespace( byte c ) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+	}
+
+	/**
+	 * @return a lazy view of the single value in the given region.
+	 */
+	static JSONLazyValue parse( byte [] source, int offset, int length ) {
+		ByteBuffer view = ByteBuffer.wrap( source ).order( ByteOrder.LITTLE_ENDIAN );
+		int limit = offset + length;
+		int start = WordScanner.skipWhitespace( view, source, offset, limit );
+		if( start == limit ) {
+			throw new IllegalFormatException( "no value" );
+		}
+		JSONLazyValue root = new JSONLazyValue( source, view, start, limit );
+		int end;
+		if( source[start] == '{' || source[start] == '[' ) {
+			// Finding the end of a container takes the same scan as indexing it, so index it now.
+			root.index();
+			end = root.limit;
+		} else {
+			end = root.skip( start );
+			root.limit = end;
+		}
+		int rest = WordScanner.skipWhitespace( view, source, end, limit );
+		if( rest < limit ) {
+			throw new IllegalFormatException( source[rest], "NONE" );
+		}
+		return root;
+	}
+
+	private final byte [] source;
+	private final ByteBuffer view;
+	private final int offset;
+	private int limit;
+
+	/**
+	 * For an array, the start and end of each element. For an object, the start and end of each key,
+	 * excluding its quotes, followed by the start and end of its value.
+	 */
+	private int [] bounds;
+	private int length = -1;
+	private JSONLazyValue [] children;
+	private JSONValue value;
+
+	private JSONLazyValue( byte [] source, ByteBuffer view, int offset, int limit ) {
+		this.source = source;
+		this.view = view;
+		this.offset = offset;
+		this.limit = limit;
+	}
+
+	public boolean booleanValue() {
+		return value().booleanValue;
+	}
+
+	private JSONLazyValue child( int index ) {
+		JSONLazyValue child = children[index];
+		if( child == null ) {
+			int stride = type() == JSONValue.Type.OBJECT ? 4 : 2;
+			int i = index * stride + stride - 2;
+			child = new JSONLazyValue( source, view, bounds[i], bounds[i + 1] );
+			children[index] = child;
+		}
+		return child;
+	}
+
+	public double doubleValue() {
+		return value().doubleValue;
+	}
+
+	private void expect( JSONValue.Type expectedType ) {
+		JSONValue.Type type = type();
+		if( !expectedType.equals( type ) ) {
+			throw new IllegalStateException( String.format( "Expected type %s, was %s", expectedType, type ) );
+		}
+	}
+
+	public JSONLazyValue get( byte [] key ) {
+		expect( JSONValue.Type.OBJECT );
+		index();
+		for( int i = 0; i < length; i++ ) {
+			if( isKey( i, key ) ) {
+				return child( i );
+			}
+		}
+		return null;
+	}
+
+	public JSONLazyValue get( int index ) {
+		expect( JSONValue.Type.ARRAY );
+		index();
+		if( index < 0 || index >= length ) {
+			throw new ArrayIndexOutOfBoundsException( index );
+		}
+		return child( index );
+	}
+
+	public JSONLazyValue get( JSONKey key ) {
+		return get( key.bytes );
+	}
+
+	public JSONLazyValue get( String key ) {
+		return get( JSONUtils.toByteArray( key ) );
+	}
+
+	/**
+	 * Finds the bounds of this container's children, once.
+	 */
+	private void index() {
+		if( bounds != null ) {
+			return;
+		}
+		boolean object = source[offset] == '{';
+		byte close = object ? (byte) '}' : (byte) ']';
+		String scope = object ? "OBJECT" : "ARRAY";
+		int [] bounds = new int [object ? 16 : 8];
+		int n = 0;
+		int i = skipWhitespace( offset + 1 );
+		if( source[i] != close ) {
+			while( true ) {
+				if( n + 4 > bounds.length ) {
+					bounds = Arrays.copyOf( bounds, bounds.length << 1 );
+				}
+				if( object ) {
+					if( source[i] != '"' ) {
+						throw new IllegalFormatException( source[i], scope );
+					}
+					bounds[n++] = i + 1;
+					i = skipString( i + 1 );
+					bounds[n++] = i - 1;
+					i = skipWhitespace( i );
+					if( source[i] != ':' ) {
+						throw new IllegalFormatException( source[i], "OBJECT_KEY" );
+					}
+					i = skipWhitespace( i + 1 );
+				}
+				switch( source[i] ) {
+					case ',':
+					case ':':
+					case ']':
+					case '}':
+						throw new IllegalFormatException( source[i], scope );
+					default:
+						break;
+				}
+				bounds[n++] = i;
+				i = skip( i );
+				bounds[n++] = i;
+				i = skipWhitespace( i );
+				if( source[i] == ',' ) {
+					i = skipWhitespace( i + 1 );
+				} else if( source[i] == close ) {
+					break;
+				} else {
+					throw new IllegalFormatException( source[i], scope );
+				}
+			}
+		}
+		limit = i + 1;
+		length = n / ( object ? 4 : 2 );
+		children = new JSONLazyValue [length];
+		this.bounds = bounds;
+	}
+
+	public int intValue() {
+		return value().intValue;
+	}
+
+	private boolean isKey( int index, byte [] key ) {
+		int start = bounds[index << 2];
+		int end = bounds[( index << 2 ) + 1];
+		for( int i = start; i < end; i++ ) {
+			if( source[i] == '\\' ) {
+				return Arrays.equals( keyAt( index ), key );
+			}
+		}
+		if( end - start != key.length ) {
+			return false;
+		}
+		for( int i = 0; i < key.length; i++ ) {
+			if( source[start + i] != key[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a copy of the decoded key of the property at the given position in this object.
+	 */
+	public byte [] keyAt( int index ) {
+		expect( JSONValue.Type.OBJECT );
+		index();
+		int start = bounds[index << 2];
+		int end = bounds[( index << 2 ) + 1];
+		return JSONParser.parse( source, start - 1, end - start + 2 ).stringValue;
+	}
+
+	/**
+	 * @return the number of elements in this array or properties in this object.
+	 */
+	public int length() {
+		JSONValue.Type type = type();
+		if( type != JSONValue.Type.ARRAY && type != JSONValue.Type.OBJECT ) {
+			throw new IllegalStateException( String.format( "Expected type %s or %s, was %s", JSONValue.Type.ARRAY, JSONValue.Type.OBJECT, type ) );
+		}
+		index();
+		return length;
+	}
+
+	public long longValue() {
+		return value().longValue;
+	}
+
+	/**
+	 * @return the position just past the value that starts at the given position.
+	 */
+	private int skip( int i ) {
+		byte c = source[i];
+		switch( c ) {
+			case '"':
+				return skipString( i + 1 );
+			case '{':
+			case '[':
+				int depth = 1;
+				for( i++; depth > 0; i++ ) {
+					if( i >= limit ) {
+						throw new IllegalFormatException( "unterminated " + ( c == '{' ? "object" : "array" ) );
+					}
+					switch( source[i] ) {
+						case '"':
+							i = skipString( i + 1 ) - 1;
+							break;
+						case '{':
+						case '[':
+							depth++;
+							break;
+						case '}':
+						case ']':
+							depth--;
+							break;
+						default:
+							break;
+					}
+				}
+				return i;
+			default:
+				for( i++; i < limit; i++ ) {
+					c = source[i];
+					if( c == ',' || c == ']' || c == '}' || isWhitespace( c ) ) {
+						break;
+					}
+				}
+				return i;
+		}
+	}
+
+	/**
+	 * @return the position just past the closing quote of the string whose contents start at the
+	 *         given position.
+	 */
+	private int skipString( int i ) {
+		while( true ) {
+			i = WordScanner.indexOfSpecial( view, source, i, limit );
+			if( i >= limit ) {
+				throw new IllegalFormatException( "unterminated string" );
+			}
+			switch( source[i] ) {
+				case '"':
+					return i + 1;
+				case '\\':
+					i += 2;
+					break;
+				default:
+					i++;
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @return the position of the first byte at or after the given position that is not whitespace.
+	 */
+	private int skipWhitespace( int i ) {
+		i = WordScanner.skipWhitespace( view, source, i, limit );
+		if( i >= limit ) {
+			throw new IllegalFormatException( "unexpected end of input" );
+		}
+		return i;
+	}
+
+	/**
+	 * @return a copy of this string's decoded bytes, or null if this is not a string.
+	 */
+	public byte [] stringValue() {
+		return source[offset] == '"' ? value().stringValue : null;
+	}
+
+	/**
+	 * @return this value and everything beneath it, decoded into a tree of {@link JSONValue} nodes.
+	 *         Scalars are decoded once and kept; containers are decoded afresh on every call.
+	 */
+	public JSONValue toJSONValue() {
+		if( value != null ) {
+			return value;
+		}
+		if( bounds == null && source[offset] != '{' && source[offset] != '[' ) {
+			return value();
+		}
+		index();
+		return JSONParser.parse( source, offset, limit - offset );
+	}
+
+	@Override
+	public String toString() {
+		return toJSONValue().toString();
+	}
+
+	public JSONValue.Type type() {
+		switch( source[offset] ) {
+			case '{':
+				return JSONValue.Type.OBJECT;
+			case '[':
+				return JSONValue.Type.ARRAY;
+			case '"':
+				return JSONValue.Type.STRING;
+			case 't':
+			case 'f':
+				return JSONValue.Type.BOOLEAN;
+			case 'n':
+				return JSONValue.Type.NULL;
+			default:
+				return value().type;
+		}
+	}
+
+	/**
+	 * @return this scalar, decoded once and kept.
+	 */
+	private JSONValue value() {
+		if( value == null ) {
+			byte c = source[offset];
+			if( c == '{' || c == '[' ) {
+				throw new IllegalStateException( String.format( "Expected a scalar, was %s", type() ) );
+			}
+			value = JSONParser.parse( source, offset, limit - offset );
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,351 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses JSON Lines (also known as newline-delimited JSON), in which each line holds one value.
+ * Blank lines are skipped. Each record is reported with the position of its line in the input, and
+ * errors report their position in the input as a whole.
+ * 
+ * Given an executor, the input is split into chunks of about {@link #DEFAULT_CHUNK_SIZE} bytes, each
+ * ending on a line feed, and the chunks are parsed in parallel, each task using a parser kept by its
+ * worker thread. Records may then be delivered in the order they appear, from the calling thread, or
+ * from the workers as soon as they are parsed, in which case the listener must be safe to call from
+ * several threads at once. Without an executor, the input is parsed on the calling thread.
+ */
+public final class JSONLines {
+
+	/**
+	 * Parses the lines between two line feeds, collecting its records to be delivered in order or
+	 * delivering them straight away.
+	 */
+	private static final class Chunk implements Callable<Chunk> {
+
+		private final ByteBuffer source;
+		private final int from;
+		private final int to;
+		private final long position;
+		private final JSONRecordListener listener;
+		private long [] positions;
+		private JSONValue [] records;
+		private int size;
+
+		public Chunk( ByteBuffer source, int from, int to, long position, JSONRecordListener listener ) {
+			this.source = source;
+			this.from = from;
+			this.to = to;
+			this.position = position;
+			this.listener = listener;
+		}
+
+		private void add( long position, JSONValue record ) {
+			if( listener != null ) {
+				listener.onRecord( position, record );
+				return;
+			}
+			if( records == null ) {
+				positions = new long [64];
+				records = new JSONValue [64];
+			} else if( size == records.length ) {
+				positions = Arrays.copyOf( positions, size << 1 );
+				records = Arrays.copyOf( records, size << 1 );
+			}
+			positions[size] = position;
+			records[size] = record;
+			size++;
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			Worker worker = WORKERS.get();
+			JSONValueBuilder builder = new JSONValueBuilder();
+			byte [] buffer;
+			int start;
+			if( source.hasArray() ) {
+				buffer = source.array();
+				start = source.arrayOffset() + from;
+			} else {
+				buffer = worker.copy( source, from, to );
+				start = 0;
+			}
+			int end = start + to - from;
+			ByteBuffer view = worker.view( buffer );
+			for( int i = start; i < end; ) {
+				int lineFeed = WordScanner.indexOfLineFeed( view, buffer, i, end );
+				if( !isBlank( buffer, i, lineFeed ) ) {
+					add( position + i - start, worker.parse( buffer, i, lineFeed, position + i - start, builder ) );
+				}
+				i = lineFeed + 1;
+			}
+			return this;
+		}
+
+		public void deliver( JSONRecordListener listener ) {
+			for( int i = 0; i < size; i++ ) {
+				listener.onRecord( positions[i], records[i] );
+			}
+		}
+
+	}
+
+	/**
+	 * The parser and scratch space kept by each thread that parses chunks.
+	 */
+	private static final class Worker {
+
+		private final JSONParser parser = new JSONParser();
+		private byte [] buffer;
+		private ByteBuffer view;
+
+		/**
+		 * Copies a range of a buffer that has no array, such as a mapped file, into scratch space.
+		 */
+		public byte [] copy( ByteBuffer source, int from, int to ) {
+			if( buffer == null || buffer.length < to - from ) {
+				buffer = new byte [to - from];
+			}
+			ByteBuffer range = source.duplicate();
+			range.limit( to );
+			range.position( from );
+			range.get( buffer, 0, to - from );
+			return buffer;
+		}
+
+		public JSONValue parse( byte [] buffer, int from, int to, long position, JSONValueBuilder builder ) throws IOException {
+			parser.reset( buffer, from, to - from, builder );
+			parser.setPosition( position );
+			if( !parser.readWhole() ) {
+				builder.reset();
+				throw new IllegalFormatException( "expected one complete value on the line", position );
+			}
+			return builder.getResult();
+		}
+
+		public ByteBuffer view( byte [] buffer ) {
+			if( view == null || view.array() != buffer ) {
+				view = ByteBuffer.wrap( buffer ).order( ByteOrder.LITTLE_ENDIAN );
+			}
+			return view;
+		}
+
+	}
+
+	/**
+	 * The number of bytes parsed by each task, give or take the rest of the line it ends on.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private static final ThreadLocal<Worker> WORKERS = new ThreadLocal<Worker>() {
+
+		@Override
+		protected Worker initialValue() {
+			return new Worker();
+		}
+
+	};
+
+	/**
+	 * Waits for a task to finish, rethrowing whatever it failed with as it was thrown.
+	 */
+	static <T> T await( Future<T> future ) throws IOException {
+		try {
+			return future.get();
+		} catch( InterruptedException exception ) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch( ExecutionException exception ) {
+			Throwable cause = exception.getCause();
+			if( cause instanceof RuntimeException ) {
+				throw (RuntimeException) cause;
+			}
+			if( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			if( cause instanceof IOException ) {
+				throw (IOException) cause;
+			}
+			throw new IOException( cause );
+		}
+	}
+
+	/**
+	 * @return the index just past the first line feed at or after the given index, or {@code to} if
+	 *         there is none.
+	 */
+	private static int boundary( ByteBuffer source, int from, int to ) {
+		for( int i = from; i < to; i++ ) {
+			if( source.get( i ) == '\n' ) {
+				return i + 1;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Waits for a chunk to be parsed, delivering its records if they were held for delivery in order.
+	 */
+	private static void drain( Future<Chunk> future, JSONRecordListener listener ) throws IOException {
+		Chunk chunk = await( future );
+		if( chunk.listener == null ) {
+			chunk.deliver( listener );
+		}
+	}
+
+	private static boolean isBlank( byte [] buffer, int from, int to ) {
+		for( int i = from; i < to; i++ ) {
+			switch( buffer[i] ) {
+				case ' ':
+				case '\t':
+				case '\r':
+					break;
+				default:
+					return false;
+			}
+		}
+		return true;
+	}
+
+	public static void parse( byte [] in, ExecutorService executor, boolean ordered, JSONRecordListener listener ) throws IOException {
+		parse( in, 0, in.length, executor, ordered, listener );
+	}
+
+	/**
+	 * Parses a region of a byte array in place. Positions are counted from the start of the region.
+	 * 
+	 * @param executor
+	 *            the executor on which to parse chunks of the input, such as a fork-join pool, or null
+	 *            to parse them on the calling thread.
+	 * @param ordered
+	 *            true to deliver records in the order they appear, from the calling thread; false to
+	 *            deliver them from the executor's threads as they are parsed.
+	 */
+	public static void parse( byte [] in, int offset, int length, ExecutorService executor, boolean ordered, JSONRecordListener listener ) throws IOException {
+		parse( ByteBuffer.wrap( in, offset, length ), offset, offset + length, 0, DEFAULT_CHUNK_SIZE, executor, ordered, listener );
+	}
+
+	/**
+	 * Parses the input on the calling thread, delivering records in order.
+	 */
+	public static void parse( byte [] in, JSONRecordListener listener ) {
+		try {
+			parse( in, null, true, listener );
+		} catch( IOException ignore ) {
+			// Surely this cannot happen.
+		}
+	}
+
+	/**
+	 * Parses the remaining bytes of the given buffer, moving its position to its limit. Positions are
+	 * counted from the buffer's position. A buffer backed by an array is parsed in place; a direct
+	 * buffer is copied a chunk at a time into space kept by each worker.
+	 */
+	public static void parse( ByteBuffer in, ExecutorService executor, boolean ordered, JSONRecordListener listener ) throws IOException {
+		parse( in, in.position(), in.limit(), 0, DEFAULT_CHUNK_SIZE, executor, ordered, listener );
+		in.position( in.limit() );
+	}
+
+	/**
+	 * Parses a range of the given buffer, splitting it into chunks for the executor and keeping enough
+	 * of them in flight to occupy every processor, but not so many that records held for delivery in
+	 * order pile up.
+	 * 
+	 * @param position
+	 *            the position in the input of the start of the range.
+	 */
+	static void parse( ByteBuffer source, int from, int to, long position, int chunkSize, ExecutorService executor, boolean ordered, JSONRecordListener listener ) throws IOException {
+		if( executor == null ) {
+			new Chunk( source, from, to, position, listener ).call();
+			return;
+		}
+		int window = 2 * Runtime.getRuntime().availableProcessors();
+		LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+		try {
+			for( int start = from; start < to; ) {
+				int end = to - start <= chunkSize ? to : boundary( source, start + chunkSize, to );
+				pending.add( executor.submit( new Chunk( source, start, end, position + start - from, ordered ? null : listener ) ) );
+				start = end;
+				if( pending.size() >= window ) {
+					drain( pending.removeFirst(), listener );
+				}
+			}
+			while( !pending.isEmpty() ) {
+				drain( pending.removeFirst(), listener );
+			}
+		} finally {
+			for( Future<Chunk> future : pending ) {
+				future.cancel( true );
+			}
+		}
+	}
+
+	/**
+	 * Parses the given file by mapping it into memory a segment at a time, each segment ending on a
+	 * line feed. Lines longer than a segment are rejected.
+	 */
+	public static void parse( File file, ExecutorService executor, boolean ordered, JSONRecordListener listener ) throws IOException {
+		RandomAccessFile in = new RandomAccessFile( file, "r" );
+		try {
+			parse( in.getChannel(), MappedInputStream.SEGMENT_SIZE, DEFAULT_CHUNK_SIZE, executor, ordered, listener );
+		} finally {
+			in.close();
+		}
+	}
+
+	static void parse( FileChannel channel, long segmentSize, int chunkSize, ExecutorService executor, boolean ordered, JSONRecordListener listener ) throws IOException {
+		long end = channel.size();
+		for( long position = 0; position < end; ) {
+			MappedByteBuffer segment = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( segmentSize, end - position ) );
+			int length = segment.limit();
+			if( position + length < end ) {
+				while( length > 0 && segment.get( length - 1 ) != '\n' ) {
+					length--;
+				}
+				if( length == 0 ) {
+					throw new IllegalFormatException( "line longer than " + segmentSize + " bytes", position );
+				}
+			}
+			parse( segment, 0, length, position, chunkSize, executor, ordered, listener );
+			position += length;
+		}
+	}
+
+	private JSONLines() {
+		// Static utility.
+	}
+
+}
@@ -0,0 +1,42 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+/**
+ * A listener that receives numbers too large to be passed on without loss as they appear in the
+ * input. These are integers outside the range of a long and numbers with more than 19 significant
+ * digits. Such a number may be turned into a {@link java.math.BigInteger} or
+ * {@link java.math.BigDecimal}, or kept as it is.
+ * 
+ * Listeners that do not implement this interface receive these numbers as doubles instead.
+ */
+public interface JSONNumberEventListener extends JSONEventListener {
+
+	/**
+	 * @param buffer
+	 *            a buffer holding the number's ASCII characters, exactly as they appeared in the input.
+	 *            It is only valid for the duration of the callback.
+	 */
+	public void onNumber( byte [] buffer, int offset, int length );
+
+}
@@ -22,19 +22,67 @@
  */
 package org.twuni.twoson;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Stack;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
 public class JSONParser {
 
-	private static enum Event {
-		NONE,
-		OBJECT,
-		ARRAY,
-		OBJECT_KEY
+	private static final byte NONE = 0;
+	private static final byte OBJECT = 1;
+	private static final byte ARRAY = 2;
+	private static final byte OBJECT_KEY = 3;
+	private static final String [] SCOPE_NAMES = {
+		"NONE",
+		"OBJECT",
+		"ARRAY",
+		"OBJECT_KEY"
+	};
+
+	static final byte END_OF_INPUT = 0;
+	static final byte BEGIN_ARRAY = 1;
+	static final byte BEGIN_OBJECT = 2;
+	static final byte BOOLEAN = 3;
+	static final byte DOUBLE = 4;
+	static final byte END_ARRAY = 5;
+	static final byte END_OBJECT = 6;
+	static final byte INTEGER = 7;
+	static final byte KEY = 8;
+	static final byte LONG = 9;
+	static final byte NULL = 10;
+	static final byte NUMBER = 11;
+	static final byte STRING = 12;
+	private static final byte SKIPPED = -1;
+
+	/**
+	 * Thrown in place of an {@link IllegalFormatException} when a piece of input ends within a token,
+	 * which is common enough when input is fed a piece at a time that building a new exception each
+	 * time would be wasteful.
+	 */
+	private static final RuntimeException STARVED = new RuntimeException( "input ran out within a token" );
+
+	private static final ThreadLocal<JSONParser> CACHE = new ThreadLocal<JSONParser>() {
+
+		@Override
+		protected JSONParser initialValue() {
+			return new JSONParser();
+		}
+
+	};
+
+	/**
+	 * @return this thread's cached parser, or a new parser if the cached one is already reading (for
+	 *         example, when a listener parses a nested document from within a callback).
+	 */
+	private static JSONParser acquire() {
+		JSONParser parser = CACHE.get();
+		return parser.reading ? new JSONParser() : parser;
 	}
 
 	private static void burn( byte [] buffer ) {
@@ -63,7 +111,9 @@ public class JSONParser {
 	public static void parse( byte [] in, int offset, int length, JSONEventListener listener ) {
 		if( in != null ) {
 			try {
-				parse( new ByteArrayInputStream( in, offset, length ), listener );
+				JSONParser parser = acquire();
+				parser.reset( in, offset, length, listener );
+				parser.read();
 			} catch( IOException ignore ) {
 				// Surely this cannot happen.
 			}
@@ -76,6 +126,50 @@ public class JSONParser {
 		}
 	}
 
+	/**
+	 * Parses the remaining bytes of the given buffer, moving its position to its limit. A buffer
+	 * backed by an array is scanned in place; a direct buffer is drained through the parser's chunk.
+	 */
+	public static JSONValue parse( ByteBuffer in ) {
+		JSONValueBuilder listener = new JSONValueBuilder();
+		JSONParser.parse( in, listener );
+		return listener.getResult();
+	}
+
+	public static void parse( ByteBuffer in, JSONEventListener listener ) {
+		if( in != null ) {
+			try {
+				JSONParser parser = acquire();
+				parser.reset( in, listener );
+				parser.read();
+			} catch( IOException ignore ) {
+				// Surely this cannot happen.
+			}
+		}
+	}
+
+	public static JSONValue parse( File file ) throws IOException {
+		JSONValueBuilder listener = new JSONValueBuilder();
+		JSONParser.parse( file, listener );
+		return listener.getResult();
+	}
+
+	/**
+	 * Parses the given file by mapping it into memory, a segment at a time, so that files of any size
+	 * are read without a system call for every chunk. Errors report their position in the file as a
+	 * long.
+	 */
+	public static void parse( File file, JSONEventListener listener ) throws IOException {
+		RandomAccessFile in = new RandomAccessFile( file, "r" );
+		try {
+			JSONParser parser = acquire();
+			parser.reset( in.getChannel(), listener );
+			parser.read();
+		} finally {
+			in.close();
+		}
+	}
+
 	public static JSONValue parse( InputStream in ) throws IOException {
 		JSONValueBuilder listener = new JSONValueBuilder();
 		JSONParser.parse( in, listener );
@@ -84,7 +178,27 @@ public class JSONParser {
 
 	public static void parse( InputStream in, JSONEventListener listener ) throws IOException {
 		if( in != null ) {
-			new JSONParser( in, listener ).read();
+			JSONParser parser = acquire();
+			parser.reset( in, listener );
+			parser.read();
+		}
+	}
+
+	/**
+	 * Parses everything the given channel has to offer, reading it through a direct buffer kept by the
+	 * parser.
+	 */
+	public static JSONValue parse( ReadableByteChannel in ) throws IOException {
+		JSONValueBuilder listener = new JSONValueBuilder();
+		JSONParser.parse( in, listener );
+		return listener.getResult();
+	}
+
+	public static void parse( ReadableByteChannel in, JSONEventListener listener ) throws IOException {
+		if( in != null ) {
+			JSONParser parser = acquire();
+			parser.reset( in, listener );
+			parser.read();
 		}
 	}
 
@@ -98,68 +212,224 @@ public class JSONParser {
 		}
 	}
 
-	private final InputStream in;
-	private final JSONEventListener listener;
+	/**
+	 * Hands each of the back-to-back top-level values in the given bytes to the listener in turn.
+	 * 
+	 * @see #readEach(JSONRecordListener)
+	 */
+	public static void parseEach( byte [] in, JSONRecordListener listener ) {
+		if( in != null ) {
+			try {
+				JSONParser parser = acquire();
+				parser.reset( in, 0, in.length, null );
+				parser.readEach( listener );
+			} catch( IOException ignore ) {
+				// Surely this cannot happen.
+			}
+		}
+	}
+
+	/**
+	 * Hands each of the back-to-back top-level values in the given stream to the listener as soon as
+	 * it has been read, however long the stream runs.
+	 * 
+	 * @see #readEach(JSONRecordListener)
+	 */
+	public static void parseEach( InputStream in, JSONRecordListener listener ) throws IOException {
+		if( in != null ) {
+			JSONParser parser = acquire();
+			parser.reset( in, null );
+			parser.readEach( listener );
+		}
+	}
+
+	/**
+	 * Scans just enough of the given document to find its top-level value, deferring the rest until
+	 * it is reached through the returned {@link JSONLazyValue}. The array is kept rather than copied.
+	 */
+	public static JSONLazyValue parseLazy( byte [] in ) {
+		return parseLazy( in, 0, in.length );
+	}
+
+	public static JSONLazyValue parseLazy( byte [] in, int offset, int length ) {
+		return JSONLazyValue.parse( in, offset, length );
+	}
+
+	public static JSONLazyValue parseLazy( String json ) {
+		return parseLazy( JSONUtils.toByteArray( json ) );
+	}
+
+	/**
+	 * Parses the given document onto a compact {@link JSONTape} rather than a tree of {@link JSONValue}
+	 * nodes.
+	 */
+	public static JSONTape parseTape( byte [] in ) {
+		JSONTapeBuilder listener = new JSONTapeBuilder();
+		JSONParser.parse( in, listener );
+		return listener.getResult();
+	}
+
+	public static JSONTape parseTape( InputStream in ) throws IOException {
+		JSONTapeBuilder listener = new JSONTapeBuilder();
+		JSONParser.parse( in, listener );
+		return listener.getResult();
+	}
+
+	public static JSONTape parseTape( String json ) {
+		return json != null ? parseTape( JSONUtils.toByteArray( json ) ) : null;
+	}
+
+	private InputStream in;
+	private ByteBufferInputStream bufferStream;
+	private ChannelInputStream channelStream;
+	private JSONEventListener listener;
 	private byte [] buffer;
 	private int offset;
 	private int size;
 
-	private final Stack<Event> scope = new Stack<Event>();
+	/**
+	 * The position in the input of the first byte in the buffer, which may exceed the range of an int
+	 * for large streams and files.
+	 */
+	private long base;
+	private ByteBuffer view;
+
+	private JSONSliceEventListener sliceListener;
+	private JSONSymbolEventListener symbolListener;
+	private JSONSymbolTable symbols;
+
+	private byte [] chunk;
+	private int chunkHighWaterMark;
+	private byte [] scratch = new byte [256];
+	private int scratchLength;
+
+	byte [] string;
+	int stringOffset;
+	int stringLength;
+
+	private JSONNumberEventListener numberListener;
+	private byte [] number = new byte [32];
+	byte [] numberBuffer;
+	int numberOffset;
+	int numberLength;
+	private int numberHighWaterMark;
+	private int mark = -1;
+	private byte [] scopes = new byte [32];
+	private int top = -1;
+	private int depth;
+	private int maximumDepth = Integer.MAX_VALUE;
+	private boolean reading;
+	private JSONValueBuilder builder;
+	private boolean exhausted;
+	private boolean partial;
+
+	boolean booleanValue;
+	long longValue;
+	double doubleValue;
+
+	private JSONPath filter;
+	private long [] alive = new long [32];
+	private int [] positions = new int [32];
+	private long next;
+	private long pending;
+	private boolean held;
+	private int whole = -1;
+
+	/**
+	 * Creates a parser without a source. Call one of the {@code reset} methods before reading.
+	 */
+	public JSONParser() {
+		// Nothing to bind yet.
+	}
+
+	/**
+	 * Creates a parser that scans the given region of a byte array in place. The array is neither
+	 * copied nor burned by the parser, so the caller remains responsible for its contents.
+	 */
+	public JSONParser( byte [] in, int offset, int length, JSONEventListener listener ) {
+		reset( in, offset, length, listener );
+	}
 
 	public JSONParser( InputStream in, JSONEventListener listener ) {
-		this.in = in;
-		this.listener = listener;
+		reset( in, listener );
 	}
 
-	private double atof( byte firstDigit ) throws IOException {
-		double a = 0;
-		int e = 0;
-		byte c = firstDigit;
-		boolean negative = false;
-		if( c == '-' ) {
-			negative = true;
-			c = nextByte();
+	private void append( byte c ) {
+		if( scratchLength == scratch.length ) {
+			scratch = Arrays.copyOf( scratch, scratchLength << 1 );
 		}
-		while( isDigit( c ) ) {
-			a = a * 10 + ( c - '0' );
-			c = nextByte();
+		scratch[scratchLength++] = c;
+	}
+
+	private void append( byte [] b, int off, int len ) {
+		if( scratchLength + len > scratch.length ) {
+			scratch = Arrays.copyOf( scratch, Math.max( scratchLength + len, scratchLength << 1 ) );
 		}
-		if( c == '.' ) {
-			c = nextByte();
-			while( isDigit( c ) ) {
-				a = a * 10 + ( c - '0' );
-				e--;
-				c = nextByte();
-			}
+		System.arraycopy( b, off, scratch, scratchLength, len );
+		scratchLength += len;
+	}
+
+	private void appendNumber( byte [] b, int off, int len ) {
+		if( numberLength + len > number.length ) {
+			number = Arrays.copyOf( number, Math.max( numberLength + len, numberLength << 1 ) );
 		}
-		if( c == 'e' || c == 'E' ) {
-			int sign = 1;
-			int x = 0;
-			c = nextByte();
-			if( c == '+' ) {
-				// Valid
-			} else if( c == '-' ) {
-				sign = -1;
-			} else {
-				throw new IOException( "Invalid number format" );
-			}
-			c = nextByte();
-			while( isDigit( c ) ) {
-				x = x * 10 + c - '0';
-				c = nextByte();
+		System.arraycopy( b, off, number, numberLength, len );
+		numberLength += len;
+	}
+
+	private void bind( JSONEventListener listener ) {
+		this.listener = listener;
+		sliceListener = listener instanceof JSONSliceEventListener ? (JSONSliceEventListener) listener : null;
+		numberListener = listener instanceof JSONNumberEventListener ? (JSONNumberEventListener) listener : null;
+		symbolListener = listener instanceof JSONSymbolEventListener ? (JSONSymbolEventListener) listener : null;
+	}
+
+	private void burnString() {
+		if( string == scratch ) {
+			Arrays.fill( scratch, 0, scratchLength, (byte) 0 );
+			scratchLength = 0;
+		}
+		string = null;
+	}
+
+	/**
+	 * @return the number of objects and arrays that are open.
+	 */
+	int depth() {
+		return depth;
+	}
+
+	/**
+	 * Opens a nested object or array scope, failing fast if this would exceed the maximum depth.
+	 */
+	private void enter( byte event ) {
+		if( depth >= maximumDepth ) {
+			throw new IllegalFormatException( "maximum nesting depth of " + maximumDepth + " exceeded", position() - 1 );
+		}
+		depth++;
+		push( event );
+		if( filter != null && whole < 0 ) {
+			if( depth == alive.length ) {
+				alive = Arrays.copyOf( alive, depth << 1 );
+				positions = Arrays.copyOf( positions, depth << 1 );
 			}
-			e += x * sign;
+			alive[depth] = next;
+			positions[depth] = 0;
 		}
-		while( e > 0 ) {
-			a *= 10;
-			e--;
+	}
+
+	/**
+	 * Closes the current object or array scope, along with the key it was the value of, if any.
+	 */
+	private void exit() {
+		depth--;
+		top--;
+		if( scopes[top] == OBJECT_KEY ) {
+			top--;
 		}
-		while( e < 0 ) {
-			a *= 0.1;
-			e++;
+		if( depth < whole ) {
+			whole = -1;
 		}
-		offset--;
-		return negative ? -a : a;
 	}
 
 	private void expect( byte expected ) throws IOException {
@@ -175,369 +445,1002 @@ public class JSONParser {
 		}
 	}
 
-	private boolean isFinished() {
-		return size <= 0;
+	public JSONPath getFilter() {
+		return filter;
 	}
 
-	private byte nextByte() throws IOException {
-		nextChunk();
-		if( isFinished() ) {
-			return 0;
-		}
-		offset++;
-		return buffer[offset - 1];
+	public int getMaximumDepth() {
+		return maximumDepth;
 	}
 
-	private byte nextByte( byte [] buffer, int position ) throws IOException {
-		byte b = nextByte();
-		buffer[position] = b;
-		return b;
+	public JSONSymbolTable getSymbolTable() {
+		return symbols;
 	}
 
-	private int nextCharUTF8( byte [] buffer ) throws IOException {
-		return nextCharUTF8( buffer, 0 );
+	/**
+	 * Decides whether the value starting with the given byte is wanted by the filter, skipping it if
+	 * not. Containers on the way to a match are kept, along with the paths still alive within them;
+	 * a match is kept whole.
+	 * 
+	 * @return {@link #SKIPPED} if the value was skipped, {@link #KEY} if the key held back for it is to
+	 *         be delivered first, in which case the given byte is left to be read again, or
+	 *         {@link #END_OF_INPUT} if the value is to be read as usual.
+	 */
+	private byte admit( byte c ) throws IOException {
+		switch( c ) {
+			case '{':
+			case '[':
+			case '"':
+			case 't':
+			case 'f':
+			case 'n':
+			case '-':
+				break;
+			default:
+				if( !isDigit( c ) ) {
+					return END_OF_INPUT;
+				}
+		}
+		byte scope = scopes[top];
+		long mask;
+		switch( scope ) {
+			case NONE:
+				mask = filter.root();
+				break;
+			case ARRAY:
+				mask = filter.match( alive[depth], depth - 1, positions[depth]++ );
+				break;
+			case OBJECT_KEY:
+				mask = pending;
+				break;
+			default:
+				return END_OF_INPUT;
+		}
+		boolean container = c == '{' || c == '[';
+		if( filter.endings( mask, depth ) != 0 ) {
+			if( container ) {
+				whole = depth + 1;
+			}
+		} else if( mask != 0 && container ) {
+			next = mask;
+		} else {
+			skipValue( c );
+			if( scope == OBJECT_KEY ) {
+				held = false;
+				burnString();
+				top--;
+			}
+			return SKIPPED;
+		}
+		if( held ) {
+			held = false;
+			offset--;
+			return KEY;
+		}
+		return END_OF_INPUT;
 	}
 
 	/**
-	 * @param buffer
-	 *            the buffer into which to read the UTF-8 bytes.
-	 * @param offset
-	 *            the position in the buffer wherein to read the bytes
-	 * @return the number of decoded bytes
-	 * @throws IOException
-	 * @throws IndexOutOfBoundsException
-	 *             if the buffer is not large enough to hold the UTF-8 bytes.
+	 * Holds back the key just read until the filter has seen what kind of value follows it. A key
+	 * that the filter may want is moved to the scratch buffer, in case the input buffer is refilled
+	 * meanwhile.
 	 */
-	private int nextCharUTF8( byte [] buffer, int offset ) throws IOException {
-
-		byte b = (byte) 0;
-		byte M = (byte) 0;
-
-		b = nextByte( buffer, offset + 0 );
-
-		if( 0 <= b && b < 0x80 ) {
-			return 1;
+	private void holdObjectKey() {
+		pending = filter.match( alive[depth], depth - 1, string, stringOffset, stringLength );
+		held = pending != 0;
+		if( pending == 0 ) {
+			burnString();
+		} else if( string != scratch ) {
+			scratchLength = 0;
+			append( string, stringOffset, stringLength );
+			string = scratch;
+			stringOffset = 0;
 		}
+	}
 
-		M = (byte) 0xF0;
+	private byte nextByte() throws IOException {
+		if( offset >= size && !nextChunk() ) {
+			return 0;
+		}
+		return buffer[offset++];
+	}
 
-		if( ( b & M ^ M ) == 0 ) {
+	/**
+	 * Refills the buffer from the input stream. Parsers scanning a byte array in place have no further
+	 * input once their region has been consumed.
+	 * 
+	 * @return true if at least one more byte is available in the buffer.
+	 */
+	private boolean nextChunk() throws IOException {
+		if( in == null ) {
+			exhausted = true;
+			return false;
+		}
+		if( mark >= 0 ) {
+			appendNumber( buffer, mark, size - mark );
+			mark = 0;
+		}
+		if( chunk == null ) {
+			chunk = new byte [64 * 1024];
+		}
+		base += size;
+		buffer = chunk;
+		offset = 0;
+		size = Math.max( 0, in.read( buffer, 0, buffer.length ) );
+		chunkHighWaterMark = Math.max( chunkHighWaterMark, size );
+		return size > 0;
+	}
 
-			nextByte( buffer, offset + 1 );
-			nextByte( buffer, offset + 2 );
-			nextByte( buffer, offset + 3 );
+	/**
+	 * Reads the next token from input that arrives a piece at a time. If the piece ends before the
+	 * token does, or might, everything read for the token is put back to be read again once more of
+	 * the input has arrived.
+	 * 
+	 * @param last
+	 *            true if the piece is the last one, so that tokens running into its end are complete
+	 *            or in error.
+	 * @return the token read, or {@link #END_OF_INPUT} if the piece holds no complete token.
+	 */
+	byte nextFedToken( boolean last ) throws IOException {
+		int start = offset;
+		int scope = top;
+		partial = !last;
+		try {
+			byte token = nextToken();
+			if( !exhausted || last || token == END_OF_INPUT ) {
+				return token;
+			}
+		} catch( IOException exception ) {
+			if( !exhausted || last ) {
+				throw exception;
+			}
+		} catch( RuntimeException exception ) {
+			if( exception != STARVED ) {
+				throw exception;
+			}
+		} finally {
+			partial = false;
+		}
+		offset = start;
+		top = scope;
+		Arrays.fill( scratch, 0, scratchLength, (byte) 0 );
+		scratchLength = 0;
+		return END_OF_INPUT;
+	}
 
-			return 4;
+	private byte nextHex() throws IOException {
+		byte c = nextByte();
+		int hex = Character.digit( c, 16 );
+		if( hex < 0x0 || hex > 0xF ) {
+			unexpected( c );
+		}
+		return (byte) ( 0xF & hex );
+	}
 
+	private String numberToString() {
+		char [] chars = new char [numberLength];
+		for( int i = 0; i < numberLength; i++ ) {
+			chars[i] = (char) numberBuffer[numberOffset + i];
 		}
+		return new String( chars );
+	}
 
-		M = (byte) 0xE0;
+	private void onObjectKey() {
+		byte [] symbol = symbols != null && symbolListener != null ? symbols.intern( string, stringOffset, stringLength ) : null;
+		if( symbol != null ) {
+			symbolListener.onObjectKeySymbol( symbol );
+		} else if( sliceListener != null ) {
+			sliceListener.onObjectKey( string, stringOffset, stringLength );
+		} else {
+			byte [] key = Arrays.copyOfRange( string, stringOffset, stringOffset + stringLength );
+			listener.onObjectKey( key );
+			burn( key );
+		}
+		burnString();
+	}
 
-		if( ( b & M ^ M ) == 0 ) {
-			nextByte( buffer, offset + 1 );
-			nextByte( buffer, offset + 2 );
-			return 3;
+	private void onString() {
+		if( sliceListener != null ) {
+			sliceListener.onString( string, stringOffset, stringLength );
+		} else {
+			byte [] value = Arrays.copyOfRange( string, stringOffset, stringOffset + stringLength );
+			listener.onString( value );
+			burn( value );
 		}
+		burnString();
+	}
 
-		M = (byte) 0xC0;
-		if( ( b & M ^ M ) == 0 ) {
-			nextByte( buffer, offset + 1 );
-			return 2;
+	private byte peekByte() throws IOException {
+		if( offset >= size && !nextChunk() ) {
+			return 0;
 		}
+		return buffer[offset];
+	}
 
-		return 1;
+	/**
+	 * @return the position in the input of the next byte to be read.
+	 */
+	long position() {
+		return base + offset;
+	}
 
+	private void push( byte event ) {
+		if( ++top == scopes.length ) {
+			scopes = Arrays.copyOf( scopes, top << 1 );
+		}
+		scopes[top] = event;
 	}
 
-	private void nextChunk() throws IOException {
-		if( buffer == null ) {
-			buffer = new byte [64 * 1024];
-			size = in.read( buffer, 0, buffer.length );
+	/**
+	 * Releases everything held for the current document, burning the buffers that held its contents.
+	 */
+	void close() {
+		top = -1;
+		depth = 0;
+		whole = -1;
+		held = false;
+		string = null;
+		Arrays.fill( scratch, 0, scratchLength, (byte) 0 );
+		scratchLength = 0;
+		Arrays.fill( number, 0, numberHighWaterMark, (byte) 0 );
+		numberHighWaterMark = 0;
+		numberBuffer = null;
+		mark = -1;
+		if( chunk != null ) {
+			Arrays.fill( chunk, 0, chunkHighWaterMark, (byte) 0 );
+			chunkHighWaterMark = 0;
+		}
+		if( in == channelStream && in != null ) {
+			channelStream.clear();
 		}
-		if( offset >= size ) {
-			offset = 0;
-			size = in.read( buffer, 0, buffer.length );
+		if( in == bufferStream && in != null ) {
+			bufferStream.reset( null );
 		}
+		in = null;
+		listener = null;
+		sliceListener = null;
+		numberListener = null;
+		symbolListener = null;
+		if( view != null && view.array() != chunk ) {
+			view = null;
+		}
+		buffer = null;
+		offset = 0;
+		size = 0;
+		base = 0;
+		exhausted = false;
+		reading = false;
 	}
 
-	private byte nextHex() throws IOException {
-		byte c = nextByte();
-		int hex = Character.digit( c, 16 );
-		if( hex < 0x0 || hex > 0xF ) {
-			unexpected( c );
+	/**
+	 * Sends the listener the event for the token just read.
+	 */
+	void emit( byte token ) {
+		switch( token ) {
+			case BEGIN_ARRAY:
+				listener.onBeginArray();
+				break;
+			case BEGIN_OBJECT:
+				listener.onBeginObject();
+				break;
+			case BOOLEAN:
+				listener.onBoolean( booleanValue );
+				break;
+			case DOUBLE:
+				listener.onDouble( doubleValue );
+				break;
+			case END_ARRAY:
+				listener.onEndArray();
+				break;
+			case END_OBJECT:
+				listener.onEndObject();
+				break;
+			case INTEGER:
+				listener.onInteger( (int) longValue );
+				break;
+			case KEY:
+				onObjectKey();
+				break;
+			case LONG:
+				listener.onLong( longValue );
+				break;
+			case NULL:
+				listener.onNull();
+				break;
+			case NUMBER:
+				onNumber();
+				break;
+			default:
+				onString();
+				break;
 		}
-		return (byte) ( 0xF & hex );
 	}
 
-	public void read() throws IOException {
+	/**
+	 * Closes the value just read, along with the key it was the value of, if any.
+	 */
+	private void endValue() {
+		if( scopes[top] == OBJECT_KEY ) {
+			top--;
+		}
+	}
 
-		byte [] utf8 = new byte [6];
+	/**
+	 * Reads up to the end of the next token, leaving its value in the parser's fields: strings, keys
+	 * and oversized numbers as slices, the rest as primitives. The slices are valid until the next
+	 * call.
+	 * 
+	 * @return the token read, or {@link #END_OF_INPUT}.
+	 */
+	byte nextToken() throws IOException {
 
-		ByteArrayOutputStream writer = new ByteArrayOutputStream();
+		if( string != null ) {
+			burnString();
+		}
 
-		try {
+		for( byte c = nextByte(); c != '\0'; c = nextByte() ) {
 
-			scope.push( Event.NONE );
-			for( byte c = nextByte(); c != '\0'; c = nextByte() ) {
+			if( filter != null && whole < 0 ) {
+				byte admitted = admit( c );
+				if( admitted == SKIPPED ) {
+					continue;
+				}
+				if( admitted == KEY ) {
+					return KEY;
+				}
+			}
 
-				switch( c ) {
+			switch( c ) {
 
-					case '{':
-						scope.push( Event.OBJECT );
-						listener.onBeginObject();
-						break;
+				case '{':
+					enter( OBJECT );
+					return BEGIN_OBJECT;
 
-					case '}':
-						switch( scope.peek() ) {
-							case OBJECT:
-								scope.pop();
-								if( Event.OBJECT_KEY.equals( scope.peek() ) ) {
-									scope.pop();
-								}
-								listener.onEndObject();
-								break;
-							default:
-								unexpected( c );
-						}
-						break;
+				case '}':
+					if( scopes[top] != OBJECT ) {
+						unexpected( c );
+					}
+					exit();
+					return END_OBJECT;
 
-					case '[':
-						scope.push( Event.ARRAY );
-						listener.onBeginArray();
-						break;
+				case '[':
+					enter( ARRAY );
+					return BEGIN_ARRAY;
 
-					case ']':
-						switch( scope.peek() ) {
-							case ARRAY:
-								scope.pop();
-								if( Event.OBJECT_KEY.equals( scope.peek() ) ) {
-									scope.pop();
-								}
-								listener.onEndArray();
+				case ']':
+					if( scopes[top] != ARRAY ) {
+						unexpected( c );
+					}
+					exit();
+					return END_ARRAY;
+
+				case ',':
+					switch( scopes[top] ) {
+						case ARRAY:
+						case OBJECT:
+							break;
+						default:
+							unexpected( c );
+					}
+					break;
+
+				case ':':
+					if( scopes[top] != OBJECT_KEY ) {
+						unexpected( c );
+					}
+					break;
+
+				case ' ':
+				case '\t':
+				case '\r':
+				case '\n':
+					skipWhitespace();
+					break;
+
+				case '"':
+					readString();
+					switch( scopes[top] ) {
+						case OBJECT:
+							push( OBJECT_KEY );
+							if( filter != null && whole < 0 ) {
+								holdObjectKey();
 								break;
-							default:
-								unexpected( c );
-						}
-						break;
+							}
+							return KEY;
+						case OBJECT_KEY:
+							top--;
+							return STRING;
+						default:
+							return STRING;
+					}
+					break;
+
+				case 't':
+					expect( "rue" );
+					endValue();
+					booleanValue = true;
+					return BOOLEAN;
+
+				case 'f':
+					expect( "alse" );
+					endValue();
+					booleanValue = false;
+					return BOOLEAN;
+
+				case 'n':
+					expect( "ull" );
+					endValue();
+					return NULL;
+
+				case '-':
+				case '0':
+				case '1':
+				case '2':
+				case '3':
+				case '4':
+				case '5':
+				case '6':
+				case '7':
+				case '8':
+				case '9':
+					byte token = readNumber( c );
+					endValue();
+					return token;
+
+				default:
+					unexpected( c );
 
-					case ',':
-						switch( scope.peek() ) {
-							case ARRAY:
-							case OBJECT:
-								break;
-							default:
-								unexpected( c );
-						}
-						break;
+			}
 
-					case ':':
-						switch( scope.peek() ) {
-							case OBJECT_KEY:
-								break;
-							default:
-								unexpected( c );
-						}
-						break;
+		}
 
-					case ' ':
-					case '\t':
-					case '\r':
-					case '\n':
-						// Ignore whitespace.
-						break;
+		return END_OF_INPUT;
 
-					case '"':
+	}
 
-						writer.reset();
+	private void onNumber() {
+		if( numberListener != null ) {
+			numberListener.onNumber( numberBuffer, numberOffset, numberLength );
+		} else {
+			listener.onDouble( Double.parseDouble( numberToString() ) );
+		}
+	}
 
-						boolean end = false;
+	/**
+	 * Prepares to read a document from the source this parser was last reset to.
+	 */
+	void open() {
+		reading = true;
+		push( NONE );
+	}
 
-						do {
+	/**
+	 * Prepares to read the elements of a top-level array from somewhere in the middle of it, as if its
+	 * opening bracket had just been read.
+	 */
+	void openArray() {
+		open();
+		enter( ARRAY );
+	}
 
-							int width = nextCharUTF8( utf8 );
+	public void read() throws IOException {
+		open();
+		try {
+			for( byte token = nextToken(); token != END_OF_INPUT; token = nextToken() ) {
+				emit( token );
+			}
+		} finally {
+			close();
+		}
+	}
 
-							switch( width ) {
+	/**
+	 * Reads back-to-back top-level values, such as a log of documents or messages from a bus, handing
+	 * each to the given listener as soon as it is complete, with the position at which it begins. The
+	 * listener given on reset receives nothing. Each value is built afresh and let go once handed over,
+	 * so the memory held does not grow with the length of the input. A value left unfinished at the
+	 * end of the input is an error.
+	 */
+	public void readEach( JSONRecordListener records ) throws IOException {
+		if( builder == null ) {
+			builder = new JSONValueBuilder();
+		}
+		bind( builder );
+		open();
+		try {
+			while( true ) {
+				for( byte c = peekByte(); c == ' ' || c == '\t' || c == '\r' || c == '\n'; c = peekByte() ) {
+					offset++;
+				}
+				long start = position();
+				byte token = nextToken();
+				if( token == END_OF_INPUT ) {
+					break;
+				}
+				emit( token );
+				while( depth > 0 ) {
+					token = nextToken();
+					if( token == END_OF_INPUT ) {
+						throw new IllegalFormatException( "unexpected end of input", position() );
+					}
+					emit( token );
+				}
+				JSONValue value = builder.getResult();
+				builder.reset();
+				records.onRecord( start, value );
+			}
+		} finally {
+			builder.reset();
+			close();
+		}
+	}
 
-								case 1:
+	private void readEscapeSequence() throws IOException {
+		byte c = nextByte();
+		switch( c ) {
 
-									c = utf8[0];
+			case 'b':
+				append( (byte) '\b' );
+				break;
 
-									if( c == '"' ) {
-										end = true;
-										break;
-									}
+			case 'f':
+				append( (byte) '\f' );
+				break;
 
-									if( c == '\\' ) {
+			case 'n':
+				append( (byte) '\n' );
+				break;
 
-										c = nextByte();
+			case 'r':
+				append( (byte) '\r' );
+				break;
 
-										switch( c ) {
+			case 't':
+				append( (byte) '\t' );
+				break;
 
-											case 'b':
-												writer.write( '\b' );
-												break;
+			case 'u':
+				append( (byte) ( nextHex() << 4 | nextHex() ) );
+				append( (byte) ( nextHex() << 4 | nextHex() ) );
+				break;
 
-											case 'f':
-												writer.write( '\f' );
-												break;
+			case '\0':
+				unexpected( c );
+				break;
 
-											case 'n':
-												writer.write( '\n' );
-												break;
+			case '"':
+			case '\\':
+			case '/':
+			default:
+				append( c );
+				break;
 
-											case 'r':
-												writer.write( '\r' );
-												break;
+		}
+	}
 
-											case 't':
-												writer.write( '\t' );
-												break;
+	/**
+	 * Reads a number whose first byte has just been consumed. Integers that fit in a long are
+	 * accumulated exactly and passed on as ints or longs; anything with a fraction or an exponent is
+	 * converted to the nearest double. Numbers with more significant digits than a long can hold are
+	 * passed on in their original form to listeners that accept them.
+	 * 
+	 * The number's bytes are left where they are in the buffer, unless a refill would overwrite them, in
+	 * which case they are spilled into a buffer of their own.
+	 * 
+	 * @return the kind of number read, which is left in {@link #longValue} or {@link #doubleValue}, or
+	 *         as a slice if it is too large for either.
+	 */
+	private byte readNumber( byte c ) throws IOException {
+
+		numberLength = 0;
+		mark = offset - 1;
+
+		boolean negative = c == '-';
+		boolean integral = true;
+		boolean truncated = false;
+		long significand = negative ? 0 : c - '0';
+		int digits = significand != 0 ? 1 : 0;
+		int exponent = 0;
+
+		for( c = peekByte(); isDigit( c ); c = peekByte() ) {
+			offset++;
+			if( digits < 19 ) {
+				significand = significand * 10 + c - '0';
+				digits += significand != 0 ? 1 : 0;
+			} else {
+				exponent++;
+				truncated |= c != '0';
+			}
+		}
 
-											case 'u':
+		if( c == '.' ) {
+			offset++;
+			integral = false;
+			for( c = peekByte(); isDigit( c ); c = peekByte() ) {
+				offset++;
+				if( digits < 19 ) {
+					significand = significand * 10 + c - '0';
+					digits += significand != 0 ? 1 : 0;
+					exponent--;
+				} else {
+					truncated |= c != '0';
+				}
+			}
+		}
 
-												int u = 0;
+		if( c == 'e' || c == 'E' ) {
+			offset++;
+			integral = false;
+			boolean negativeExponent = false;
+			c = peekByte();
+			if( c == '+' || c == '-' ) {
+				offset++;
+				negativeExponent = c == '-';
+				c = peekByte();
+			}
+			if( !isDigit( c ) ) {
+				throw new IOException( "Invalid number format" );
+			}
+			int x = 0;
+			for( ; isDigit( c ); c = peekByte() ) {
+				offset++;
+				if( x < 100000 ) {
+					x = x * 10 + c - '0';
+				}
+			}
+			exponent += negativeExponent ? -x : x;
+		}
 
-												u = nextHex() << 4;
-												u |= nextHex();
+		if( numberLength > 0 ) {
+			appendNumber( buffer, 0, offset );
+			numberHighWaterMark = Math.max( numberHighWaterMark, numberLength );
+			numberBuffer = number;
+			numberOffset = 0;
+		} else {
+			numberBuffer = buffer;
+			numberOffset = mark;
+			numberLength = offset - mark;
+		}
+		mark = -1;
 
-												writer.write( 0xFF & u );
+		if( integral && !truncated && exponent == 0 && ( significand >= 0 || negative && significand == Long.MIN_VALUE ) ) {
+			longValue = negative ? -significand : significand;
+			return (int) longValue == longValue ? INTEGER : LONG;
+		}
 
-												u = nextHex() << 4;
-												u |= nextHex();
+		if( !integral && !truncated ) {
+			double value = DoubleConversion.toDouble( negative, significand, exponent );
+			doubleValue = value == value ? value : Double.parseDouble( numberToString() );
+			return DOUBLE;
+		}
 
-												writer.write( 0xFF & u );
+		return NUMBER;
 
-												break;
+	}
 
-											case '"':
-											case '\\':
-											case '/':
-											default:
-												writer.write( c );
-												break;
+	/**
+	 * Scans a string whose opening quote has just been consumed. A string that has no escape sequences
+	 * and lies entirely within the current buffer is left there as a slice; otherwise, it is decoded
+	 * into the scratch buffer.
+	 */
+	private void readString() throws IOException {
+		int start = offset;
+		for( offset = scan( offset ); offset < size; offset = scan( offset + 1 ) ) {
+			byte c = buffer[offset];
+			if( c == '"' ) {
+				string = buffer;
+				stringOffset = start;
+				stringLength = offset - start;
+				offset++;
+				return;
+			}
+			if( c == '\\' || c == '\0' ) {
+				break;
+			}
+		}
+		scratchLength = 0;
+		append( buffer, start, offset - start );
+		while( true ) {
+			if( offset >= size && !nextChunk() ) {
+				unexpected( (byte) 0 );
+			}
+			int end = scan( offset );
+			append( buffer, offset, end - offset );
+			offset = end;
+			if( offset < size ) {
+				byte c = buffer[offset++];
+				if( c == '"' ) {
+					break;
+				}
+				switch( c ) {
+					case '\0':
+						unexpected( c );
+						break;
+					case '\\':
+						readEscapeSequence();
+						break;
+					default:
+						append( c );
+						break;
+				}
+			}
+		}
+		string = scratch;
+		stringOffset = 0;
+		stringLength = scratchLength;
+	}
 
-										}
+	/**
+	 * Reads a single value that should make up the whole input, give or take whitespace around it.
+	 * 
+	 * @return false if the value is left unfinished or something follows it.
+	 */
+	boolean readWhole() throws IOException {
+		open();
+		try {
+			byte token = nextToken();
+			if( token == END_OF_INPUT ) {
+				return true;
+			}
+			emit( token );
+			while( depth > 0 ) {
+				token = nextToken();
+				if( token == END_OF_INPUT ) {
+					return false;
+				}
+				emit( token );
+			}
+			return nextToken() == END_OF_INPUT;
+		} finally {
+			close();
+		}
+	}
 
-									} else {
-										writer.write( c );
-									}
+	/**
+	 * Binds this parser to a new region of a byte array, which will be scanned in place.
+	 */
+	public void reset( byte [] in, int offset, int length, JSONEventListener listener ) {
+		this.in = null;
+		bind( listener );
+		buffer = in;
+		this.offset = offset;
+		size = Math.min( offset + length, in.length );
+		base = -offset;
+	}
 
-									break;
+	/**
+	 * Binds this parser to the remaining bytes of the given buffer. A buffer backed by an array is
+	 * scanned in place, and its position is moved to its limit straight away; a direct buffer is
+	 * drained through the parser's chunk, and its position advances as it is read.
+	 */
+	public void reset( ByteBuffer in, JSONEventListener listener ) {
+		if( in.hasArray() ) {
+			int position = in.position();
+			in.position( in.limit() );
+			reset( in.array(), in.arrayOffset() + position, in.limit() - position, listener );
+		} else {
+			if( bufferStream == null ) {
+				bufferStream = new ByteBufferInputStream();
+			}
+			bufferStream.reset( in );
+			reset( bufferStream, listener );
+		}
+	}
 
-								default:
-									writer.write( utf8, 0, width );
-									break;
-							}
+	/**
+	 * Binds this parser to a file, which will be mapped into memory a segment at a time from the
+	 * channel's current position to its end. The channel must stay open until the document has been
+	 * read.
+	 */
+	public void reset( FileChannel in, JSONEventListener listener ) throws IOException {
+		reset( new MappedInputStream( in ), listener );
+	}
 
-						} while( !end );
+	/**
+	 * Binds this parser to a new input stream. The parser's scan buffer is kept from one stream to the
+	 * next, so a parser that is reset and read repeatedly allocates nothing on its own behalf.
+	 */
+	public void reset( InputStream in, JSONEventListener listener ) {
+		this.in = in;
+		bind( listener );
+		buffer = null;
+		offset = 0;
+		size = 0;
+		base = 0;
+	}
 
-						byte [] string = writer.toByteArray();
+	/**
+	 * Binds this parser to a channel, which will be read through a direct buffer kept from one channel
+	 * to the next and burned after each document.
+	 */
+	public void reset( ReadableByteChannel in, JSONEventListener listener ) {
+		if( channelStream == null ) {
+			channelStream = new ChannelInputStream();
+		}
+		channelStream.reset( in );
+		reset( channelStream, listener );
+	}
 
-						switch( scope.peek() ) {
-							case OBJECT:
-								listener.onObjectKey( string );
-								burn( string );
-								scope.push( Event.OBJECT_KEY );
-								break;
-							case OBJECT_KEY:
-								listener.onString( string );
-								burn( string );
-								scope.pop();
-								break;
-							default:
-								listener.onString( string );
-								burn( string );
-								break;
-						}
+	/**
+	 * Moves a parser that is already reading on to the next piece of its input, keeping its scopes.
+	 * 
+	 * @param position
+	 *            the position of the piece in the input as a whole.
+	 */
+	void resume( byte [] in, int offset, int length, long position ) {
+		buffer = in;
+		this.offset = offset;
+		size = offset + length;
+		base = position - offset;
+		exhausted = false;
+	}
 
-						writer.reset();
+	/**
+	 * @return the position of the next quote, backslash or control character in the buffer, or the end
+	 *         of the buffer if there is none. Runs long enough to be worth it are scanned a word at a
+	 *         time.
+	 */
+	private int scan( int from ) {
+		if( size - from >= 16 ) {
+			return WordScanner.indexOfSpecial( view(), buffer, from, size );
+		}
+		for( int i = from; i < size; i++ ) {
+			byte c = buffer[i];
+			if( c == '"' || c == '\\' || 0 <= c && c < ' ' ) {
+				return i;
+			}
+		}
+		return size;
+	}
 
-						break;
+	/**
+	 * Limits the events this parser sends to those for values on the given paths, and the objects and
+	 * arrays containing them. Everything else is skipped by matching brackets and quotes, without
+	 * decoding it, and is only checked that far. The filter is kept across documents until replaced.
+	 * By default, there is no filter.
+	 * 
+	 * Objects and arrays that may hold a match are kept even if they turn out not to, and arrays hold
+	 * only their matching elements, so positions within them may differ from those in the input.
+	 */
+	public void setFilter( JSONPath filter ) {
+		this.filter = filter;
+	}
 
-					case 't':
-						expect( "rue" );
-						listener.onBoolean( true );
-						switch( scope.peek() ) {
-							case OBJECT_KEY:
-								scope.pop();
-								break;
-							default:
-								break;
-						}
-						break;
+	/**
+	 * Limits how deeply objects and arrays may be nested in the documents this parser reads. Input that
+	 * nests more deeply is rejected with an {@link IllegalFormatException} as soon as the offending
+	 * bracket is reached. By default, nesting is unlimited.
+	 */
+	public void setMaximumDepth( int maximumDepth ) {
+		this.maximumDepth = maximumDepth;
+	}
 
-					case 'f':
-						expect( "alse" );
-						listener.onBoolean( false );
-						switch( scope.peek() ) {
-							case OBJECT_KEY:
-								scope.pop();
-								break;
-							default:
-								break;
-						}
-						break;
+	/**
+	 * Counts positions in the current input from the given one rather than from zero, for a region
+	 * that is part of a larger input.
+	 */
+	void setPosition( long position ) {
+		base = position - offset;
+	}
 
-					case 'n':
-						expect( "ull" );
-						listener.onNull();
-						switch( scope.peek() ) {
-							case OBJECT_KEY:
-								scope.pop();
-								break;
-							default:
-								break;
-						}
-						break;
+	/**
+	 * Interns object keys through the given table, which is kept across documents until replaced.
+	 * Listeners implementing {@link JSONSymbolEventListener} then receive each key as its canonical
+	 * array; others receive keys as before. By default, there is no table.
+	 */
+	public void setSymbolTable( JSONSymbolTable symbols ) {
+		this.symbols = symbols;
+	}
 
-					case '-':
-					case '0':
-					case '1':
-					case '2':
-					case '3':
-					case '4':
-					case '5':
-					case '6':
-					case '7':
-					case '8':
-					case '9':
-						double f = atof( c );
-						double d = ( f < 0 ? -1 : 1 ) * ( f - (int) f );
-						if( d < 0.00001 ) {
-							if( d > Integer.MAX_VALUE || d < Integer.MIN_VALUE ) {
-								listener.onLong( (long) f );
-							} else {
-								listener.onInteger( (int) f );
-							}
-						} else {
-							listener.onDouble( f );
-						}
-						switch( scope.peek() ) {
-							case OBJECT_KEY:
-								scope.pop();
-								break;
-							default:
-								break;
-						}
-						break;
+	/**
+	 * Skips the rest of an object or array, matching brackets and quotes but otherwise paying no
+	 * attention to its contents.
+	 */
+	private void skipContainer() throws IOException {
+		int state = 1 << 2;
+		while( true ) {
+			int end = WordScanner.skipNested( view(), buffer, offset, size, state );
+			if( end >= 0 ) {
+				offset = end;
+				return;
+			}
+			state = ~end;
+			offset = size;
+			if( !nextChunk() ) {
+				unexpected( (byte) 0 );
+			}
+		}
+	}
 
-					default:
-						unexpected( c );
+	/**
+	 * Skips the rest of the object or array just begun, closing its scope as if its end had been read.
+	 */
+	void skipChildren() throws IOException {
+		skipContainer();
+		exit();
+	}
 
+	/**
+	 * Skips the rest of a string without decoding it.
+	 */
+	private void skipString() throws IOException {
+		while( true ) {
+			int i = scan( offset );
+			if( i == size ) {
+				offset = size;
+				if( !nextChunk() ) {
+					unexpected( (byte) 0 );
 				}
-
+				continue;
+			}
+			offset = i + 1;
+			if( buffer[i] == '"' ) {
+				return;
 			}
+			if( buffer[i] == '\\' ) {
+				if( offset == size && !nextChunk() ) {
+					unexpected( (byte) 0 );
+				}
+				offset++;
+			}
+		}
+	}
 
-		} finally {
-			scope.clear();
-			burn( buffer );
-			buffer = null;
+	/**
+	 * Skips the rest of the value starting with the given byte, decoding nothing and notifying no one.
+	 */
+	private void skipValue( byte c ) throws IOException {
+		switch( c ) {
+			case '"':
+				skipString();
+				break;
+			case '{':
+			case '[':
+				skipContainer();
+				break;
+			default:
+				while( offset < size || nextChunk() ) {
+					switch( buffer[offset] ) {
+						case ',':
+						case ']':
+						case '}':
+						case ' ':
+						case '\t':
+						case '\r':
+						case '\n':
+							return;
+						default:
+							offset++;
+					}
+				}
+				break;
 		}
+	}
 
+	/**
+	 * Skips a run of whitespace following the whitespace character just consumed.
+	 */
+	private void skipWhitespace() {
+		if( size - offset >= 16 ) {
+			offset = WordScanner.skipWhitespace( view(), buffer, offset, size );
+		}
 	}
 
 	private void unexpected( byte c ) {
-		throw new IllegalFormatException( c, scope.peek().toString() );
+		if( partial && exhausted ) {
+			throw STARVED;
+		}
+		throw new IllegalFormatException( c, SCOPE_NAMES[scopes[top]], c != 0 ? position() - 1 : position() );
+	}
+
+	/**
+	 * @return a little-endian view of the current buffer, for reading it a word at a time.
+	 */
+	private ByteBuffer view() {
+		if( view == null || view.array() != buffer ) {
+			view = ByteBuffer.wrap( buffer ).order( ByteOrder.LITTLE_ENDIAN );
+		}
+		return view;
 	}
 
 }
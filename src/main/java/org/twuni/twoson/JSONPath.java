@@ -0,0 +1,241 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.util.Arrays;
+
+/**
+ * A set of paths into a document, compiled for use as a {@link JSONParser} filter. A path starts at
+ * the root, {@code $}, followed by any number of steps:
+ * 
+ * <ul>
+ * <li>{@code .name} or {@code ['name']} selects the property with the given key;</li>
+ * <li>{@code [n]} selects the array element at the given position;</li>
+ * <li>{@code .*} or {@code [*]} selects every element or property.</li>
+ * </ul>
+ * 
+ * For example, {@code $.user.id} and {@code $.items[*].sku}. Up to 64 paths may be compiled
+ * together. The parser tracks which of them are still alive at each level of nesting as a bit mask,
+ * one bit per path.
+ */
+public final class JSONPath {
+
+	/**
+	 * The steps taken at one level of nesting, across all paths.
+	 */
+	private static final class Level {
+
+		private long wildcards;
+		private long endings;
+		private byte [][] keys = new byte [0] [];
+		private long [] keyMasks = new long [0];
+		private int [] indices = new int [0];
+		private long [] indexMasks = new long [0];
+
+		public void addIndex( int index, long bit ) {
+			for( int i = 0; i < indices.length; i++ ) {
+				if( indices[i] == index ) {
+					indexMasks[i] |= bit;
+					return;
+				}
+			}
+			indices = Arrays.copyOf( indices, indices.length + 1 );
+			indexMasks = Arrays.copyOf( indexMasks, indexMasks.length + 1 );
+			indices[indices.length - 1] = index;
+			indexMasks[indexMasks.length - 1] = bit;
+		}
+
+		public void addKey( byte [] key, long bit ) {
+			for( int i = 0; i < keys.length; i++ ) {
+				if( Arrays.equals( keys[i], key ) ) {
+					keyMasks[i] |= bit;
+					return;
+				}
+			}
+			keys = Arrays.copyOf( keys, keys.length + 1 );
+			keyMasks = Arrays.copyOf( keyMasks, keyMasks.length + 1 );
+			keys[keys.length - 1] = key;
+			keyMasks[keyMasks.length - 1] = bit;
+		}
+
+	}
+
+	public static final int MAXIMUM_PATHS = 64;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a path is malformed, or there are more than {@link #MAXIMUM_PATHS} of them.
+	 */
+	public static JSONPath compile( String... paths ) {
+		if( paths.length > MAXIMUM_PATHS ) {
+			throw new IllegalArgumentException( "at most " + MAXIMUM_PATHS + " paths may be compiled together" );
+		}
+		JSONPath compiled = new JSONPath( paths );
+		for( int p = 0; p < paths.length; p++ ) {
+			compile( compiled, paths[p], 1L << p );
+		}
+		return compiled;
+	}
+
+	private static void compile( JSONPath compiled, String path, long bit ) {
+		if( !path.startsWith( "$" ) ) {
+			throw malformed( path );
+		}
+		int depth = 0;
+		for( int i = 1; i < path.length(); depth++ ) {
+			Level level = compiled.level( depth );
+			char c = path.charAt( i );
+			if( c == '.' ) {
+				int end = i + 1;
+				while( end < path.length() && path.charAt( end ) != '.' && path.charAt( end ) != '[' ) {
+					end++;
+				}
+				String name = path.substring( i + 1, end );
+				if( name.length() == 0 ) {
+					throw malformed( path );
+				}
+				if( "*".equals( name ) ) {
+					level.wildcards |= bit;
+				} else {
+					level.addKey( JSONUtils.toByteArray( name ), bit );
+				}
+				i = end;
+			} else if( c == '[' ) {
+				int end = path.indexOf( ']', i );
+				if( end < 0 ) {
+					throw malformed( path );
+				}
+				String step = path.substring( i + 1, end );
+				if( "*".equals( step ) ) {
+					level.wildcards |= bit;
+				} else if( step.length() >= 2 && ( step.charAt( 0 ) == '\'' || step.charAt( 0 ) == '"' ) && step.charAt( step.length() - 1 ) == step.charAt( 0 ) ) {
+					level.addKey( JSONUtils.toByteArray( step.substring( 1, step.length() - 1 ) ), bit );
+				} else {
+					try {
+						int index = Integer.parseInt( step );
+						if( index < 0 ) {
+							throw malformed( path );
+						}
+						level.addIndex( index, bit );
+					} catch( NumberFormatException exception ) {
+						throw malformed( path );
+					}
+				}
+				i = end + 1;
+			} else {
+				throw malformed( path );
+			}
+		}
+		compiled.level( depth ).endings |= bit;
+	}
+
+	private static boolean isKey( byte [] key, byte [] buffer, int offset, int length ) {
+		if( key.length != length ) {
+			return false;
+		}
+		for( int i = 0; i < length; i++ ) {
+			if( key[i] != buffer[offset + i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static IllegalArgumentException malformed( String path ) {
+		return new IllegalArgumentException( "malformed path: " + path );
+	}
+
+	private final String [] paths;
+	private Level [] levels = new Level [0];
+
+	private JSONPath( String [] paths ) {
+		this.paths = paths.clone();
+	}
+
+	/**
+	 * @return the paths in the given set that end at the given depth.
+	 */
+	long endings( long alive, int depth ) {
+		return depth < levels.length ? alive & levels[depth].endings : 0;
+	}
+
+	private Level level( int depth ) {
+		if( depth >= levels.length ) {
+			int length = levels.length;
+			levels = Arrays.copyOf( levels, depth + 1 );
+			for( int i = length; i <= depth; i++ ) {
+				levels[i] = new Level();
+			}
+		}
+		return levels[depth];
+	}
+
+	/**
+	 * @return the paths in the given set whose step at the given depth selects the array element at
+	 *         the given position.
+	 */
+	long match( long alive, int depth, int index ) {
+		if( depth >= levels.length ) {
+			return 0;
+		}
+		Level level = levels[depth];
+		long mask = level.wildcards;
+		for( int i = 0; i < level.indices.length; i++ ) {
+			if( level.indices[i] == index ) {
+				mask |= level.indexMasks[i];
+			}
+		}
+		return alive & mask;
+	}
+
+	/**
+	 * @return the paths in the given set whose step at the given depth selects the property with the
+	 *         given key.
+	 */
+	long match( long alive, int depth, byte [] buffer, int offset, int length ) {
+		if( depth >= levels.length ) {
+			return 0;
+		}
+		Level level = levels[depth];
+		long mask = level.wildcards;
+		for( int i = 0; i < level.keys.length; i++ ) {
+			if( ( alive & level.keyMasks[i] ) != 0 && isKey( level.keys[i], buffer, offset, length ) ) {
+				mask |= level.keyMasks[i];
+			}
+		}
+		return alive & mask;
+	}
+
+	/**
+	 * @return the set of every compiled path.
+	 */
+	long root() {
+		return paths.length == MAXIMUM_PATHS ? -1L : ( 1L << paths.length ) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString( paths );
+	}
+
+}
@@ -0,0 +1,396 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a document one token at a time, as an alternative to receiving its events through a
+ * {@link JSONEventListener}. Each call to {@link #nextToken()} advances past one token and leaves
+ * its value to be read through the typed accessors:
+ * 
+ * <pre>
+ * JSONReader reader = new JSONReader( json );
+ * reader.nextToken(); // BEGIN_OBJECT
+ * while( reader.nextToken() == JSONReader.Token.OBJECT_KEY ) {
+ * 	if( reader.isKey( ID ) ) {
+ * 		reader.nextToken();
+ * 		id = reader.longValue();
+ * 	} else {
+ * 		reader.nextToken();
+ * 		reader.skipChildren();
+ * 	}
+ * }
+ * </pre>
+ * 
+ * Strings, keys and oversized numbers are exposed as slices of the reader's buffers, which are only
+ * valid until the next token is read. The reader burns its buffers once the input is exhausted, an
+ * error occurs, or it is closed.
+ */
+public final class JSONReader {
+
+	public static enum Token {
+
+		BEGIN_ARRAY,
+		BEGIN_OBJECT,
+		BOOLEAN,
+		DOUBLE,
+		END_ARRAY,
+		END_OBJECT,
+		INTEGER,
+		LONG,
+		NULL,
+		NUMBER,
+		OBJECT_KEY,
+		STRING
+
+	}
+
+	private static final Token [] TOKENS = new Token [JSONParser.STRING + 1];
+
+	static {
+		TOKENS[JSONParser.BEGIN_ARRAY] = Token.BEGIN_ARRAY;
+		TOKENS[JSONParser.BEGIN_OBJECT] = Token.BEGIN_OBJECT;
+		TOKENS[JSONParser.BOOLEAN] = Token.BOOLEAN;
+		TOKENS[JSONParser.DOUBLE] = Token.DOUBLE;
+		TOKENS[JSONParser.END_ARRAY] = Token.END_ARRAY;
+		TOKENS[JSONParser.END_OBJECT] = Token.END_OBJECT;
+		TOKENS[JSONParser.INTEGER] = Token.INTEGER;
+		TOKENS[JSONParser.KEY] = Token.OBJECT_KEY;
+		TOKENS[JSONParser.LONG] = Token.LONG;
+		TOKENS[JSONParser.NULL] = Token.NULL;
+		TOKENS[JSONParser.NUMBER] = Token.NUMBER;
+		TOKENS[JSONParser.STRING] = Token.STRING;
+	}
+
+	private final JSONParser parser = new JSONParser();
+	private Token token;
+	private boolean closed;
+
+	/**
+	 * For each open container, whether it is an object, the position of its current element or the
+	 * current key, as needed to describe the path to the current token.
+	 */
+	private boolean [] objects = new boolean [16];
+	private int [] positions = new int [16];
+	private byte [][] keys = new byte [16] [];
+	private int [] keyLengths = new int [16];
+	private int depth;
+
+	public JSONReader( byte [] in ) {
+		this( in, 0, in.length );
+	}
+
+	/**
+	 * Reads the given region of a byte array in place. The array is neither copied nor burned.
+	 */
+	public JSONReader( byte [] in, int offset, int length ) {
+		parser.reset( in, offset, length, null );
+		parser.open();
+	}
+
+	/**
+	 * Reads the remaining bytes of the given buffer, in place if it is backed by an array. See
+	 * {@link JSONParser#reset(ByteBuffer, JSONEventListener)}.
+	 */
+	public JSONReader( ByteBuffer in ) {
+		parser.reset( in, null );
+		parser.open();
+	}
+
+	public JSONReader( InputStream in ) {
+		parser.reset( in, null );
+		parser.open();
+	}
+
+	public JSONReader( ReadableByteChannel in ) {
+		parser.reset( in, null );
+		parser.open();
+	}
+
+	public JSONReader( String json ) {
+		this( JSONUtils.toByteArray( json ) );
+	}
+
+	/**
+	 * @return true if the current token is the literal {@code true}.
+	 */
+	public boolean booleanValue() {
+		return token == Token.BOOLEAN && parser.booleanValue;
+	}
+
+	/**
+	 * @return the buffer holding the current string, key or oversized number. See {@link #offset()}
+	 *         and {@link #length()}.
+	 */
+	public byte [] buffer() {
+		switch( token ) {
+			case OBJECT_KEY:
+			case STRING:
+				return parser.string;
+			case NUMBER:
+				return parser.numberBuffer;
+			default:
+				throw unexpected();
+		}
+	}
+
+	/**
+	 * Stops reading, burning the reader's buffers. Reading past the end of the input does the same.
+	 */
+	public void close() {
+		if( !closed ) {
+			closed = true;
+			token = null;
+			for( int i = 0; i < keys.length; i++ ) {
+				if( keys[i] != null ) {
+					Arrays.fill( keys[i], (byte) 0 );
+				}
+			}
+			parser.close();
+		}
+	}
+
+	/**
+	 * @return the current token, or null before the first token and after the last.
+	 */
+	public Token currentToken() {
+		return token;
+	}
+
+	/**
+	 * @return the number of objects and arrays enclosing the current token. An object or array counts
+	 *         as enclosing its own beginning, but not its end.
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * @return the current number as a double.
+	 */
+	public double doubleValue() {
+		switch( token ) {
+			case INTEGER:
+			case LONG:
+				return parser.longValue;
+			case DOUBLE:
+				return parser.doubleValue;
+			case NUMBER:
+				return Double.parseDouble( JSONUtils.fromByteArray( parser.numberBuffer, parser.numberOffset, parser.numberLength ) );
+			default:
+				throw unexpected();
+		}
+	}
+
+	/**
+	 * @return the current number as an int, truncated as a cast would.
+	 */
+	public int intValue() {
+		return token == Token.DOUBLE || token == Token.NUMBER ? (int) doubleValue() : (int) longValue();
+	}
+
+	/**
+	 * @return true if the current key is exactly the given one.
+	 */
+	public boolean isKey( byte [] key ) {
+		if( token != Token.OBJECT_KEY || parser.stringLength != key.length ) {
+			return false;
+		}
+		for( int i = 0; i < key.length; i++ ) {
+			if( parser.string[parser.stringOffset + i] != key[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isKey( JSONKey key ) {
+		return isKey( key.bytes );
+	}
+
+	public boolean isKey( String key ) {
+		return isKey( JSONUtils.toByteArray( key ) );
+	}
+
+	/**
+	 * @return the length of the current string, key or oversized number within {@link #buffer()}.
+	 */
+	public int length() {
+		buffer();
+		return token == Token.NUMBER ? parser.numberLength : parser.stringLength;
+	}
+
+	/**
+	 * @return the current number as a long, truncated as a cast would.
+	 */
+	public long longValue() {
+		switch( token ) {
+			case INTEGER:
+			case LONG:
+				return parser.longValue;
+			case DOUBLE:
+			case NUMBER:
+				return (long) doubleValue();
+			default:
+				throw unexpected();
+		}
+	}
+
+	/**
+	 * Advances to the next token.
+	 * 
+	 * @return the token, or null at the end of the input.
+	 */
+	public Token nextToken() throws IOException {
+		if( closed ) {
+			return null;
+		}
+		boolean success = false;
+		try {
+			byte next = parser.nextToken();
+			success = true;
+			if( next == JSONParser.END_OF_INPUT ) {
+				close();
+				return null;
+			}
+			token = TOKENS[next];
+		} finally {
+			if( !success ) {
+				close();
+			}
+		}
+		track();
+		return token;
+	}
+
+	/**
+	 * @return the position of the current string, key or oversized number within {@link #buffer()}.
+	 */
+	public int offset() {
+		buffer();
+		return token == Token.NUMBER ? parser.numberOffset : parser.stringOffset;
+	}
+
+	/**
+	 * @return the path from the root to the current token, such as {@code $.items[3].sku}. For the
+	 *         beginning or end of an object or array, this is the path to the object or array itself;
+	 *         for a key, it is the path to its value.
+	 */
+	public String path() {
+		StringBuilder path = new StringBuilder( "$" );
+		int levels = token == Token.BEGIN_ARRAY || token == Token.BEGIN_OBJECT ? depth - 1 : depth;
+		for( int i = 1; i <= levels; i++ ) {
+			if( objects[i] ) {
+				if( keys[i] != null && positions[i] >= 0 ) {
+					path.append( '.' ).append( JSONUtils.fromByteArray( keys[i], 0, keyLengths[i] ) );
+				}
+			} else if( positions[i] >= 0 ) {
+				path.append( '[' ).append( positions[i] ).append( ']' );
+			}
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Skips the children of the object or array just begun, leaving its end as the current token. For
+	 * any other token, does nothing. The children are skipped by matching brackets and quotes, without
+	 * decoding them.
+	 */
+	public void skipChildren() throws IOException {
+		if( token == Token.BEGIN_ARRAY || token == Token.BEGIN_OBJECT ) {
+			boolean success = false;
+			try {
+				parser.skipChildren();
+				success = true;
+			} finally {
+				if( !success ) {
+					close();
+				}
+			}
+			token = token == Token.BEGIN_ARRAY ? Token.END_ARRAY : Token.END_OBJECT;
+			depth--;
+		}
+	}
+
+	/**
+	 * @return a copy of the current string or key, decoded from UTF-8.
+	 */
+	public String stringValue() {
+		return JSONUtils.fromByteArray( buffer(), offset(), length() );
+	}
+
+	@Override
+	public String toString() {
+		return token + " at " + path();
+	}
+
+	/**
+	 * Keeps track of where the current token sits, for {@link #depth()} and {@link #path()}.
+	 */
+	private void track() {
+		switch( token ) {
+			case END_ARRAY:
+			case END_OBJECT:
+				depth--;
+				return;
+			case OBJECT_KEY:
+				int length = parser.stringLength;
+				if( keys[depth] == null || keys[depth].length < length ) {
+					if( keys[depth] != null ) {
+						Arrays.fill( keys[depth], (byte) 0 );
+					}
+					keys[depth] = new byte [Math.max( length, 16 )];
+				}
+				System.arraycopy( parser.string, parser.stringOffset, keys[depth], 0, length );
+				keyLengths[depth] = length;
+				positions[depth] = 0;
+				return;
+			default:
+				break;
+		}
+		if( !objects[depth] ) {
+			positions[depth]++;
+		}
+		if( token == Token.BEGIN_ARRAY || token == Token.BEGIN_OBJECT ) {
+			depth++;
+			if( depth == objects.length ) {
+				objects = Arrays.copyOf( objects, depth << 1 );
+				positions = Arrays.copyOf( positions, depth << 1 );
+				keys = Arrays.copyOf( keys, depth << 1 );
+				keyLengths = Arrays.copyOf( keyLengths, depth << 1 );
+			}
+			objects[depth] = token == Token.BEGIN_OBJECT;
+			positions[depth] = -1;
+		}
+	}
+
+	private IllegalStateException unexpected() {
+		return new IllegalStateException( "Unexpected token " + token );
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.util.Arrays;
+
+/**
+ * Interns object keys, so that every occurrence of a key in the documents read by a
+ * {@link JSONParser} is delivered as one shared array. This pays off for record-oriented input,
+ * such as a large array of objects that all use the same few keys.
+ * 
+ * The table is bounded: once it holds its maximum number of symbols, when a key is longer than the
+ * maximum symbol length, or when a key is not found within a few slots of its own, keys are
+ * delivered as usual instead. Hostile input therefore cannot grow it without limit, nor make a
+ * lookup walk a long run of colliding keys.
+ * 
+ * Symbols are shared by everything parsed with the table, so a {@link JSONValue} built from them
+ * must not be burned with {@link JSONValue#reset()} while the table is still in use. A table is not
+ * thread-safe; use one per parser.
+ */
+public final class JSONSymbolTable {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 4096;
+	public static final int DEFAULT_MAXIMUM_SYMBOL_LENGTH = 256;
+
+	private static final int MAXIMUM_PROBES = 8;
+
+	private static boolean isSymbol( byte [] symbol, byte [] buffer, int offset, int length ) {
+		if( symbol.length != length ) {
+			return false;
+		}
+		for( int i = 0; i < length; i++ ) {
+			if( symbol[i] != buffer[offset + i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private final int maximumSize;
+	private final int maximumSymbolLength;
+	private final byte [][] symbols;
+	private final int [] hashes;
+	private int size;
+	private long hits;
+	private long misses;
+
+	public JSONSymbolTable() {
+		this( DEFAULT_MAXIMUM_SIZE, DEFAULT_MAXIMUM_SYMBOL_LENGTH );
+	}
+
+	public JSONSymbolTable( int maximumSize, int maximumSymbolLength ) {
+		if( maximumSize < 1 || maximumSymbolLength < 0 ) {
+			throw new IllegalArgumentException();
+		}
+		this.maximumSize = maximumSize;
+		this.maximumSymbolLength = maximumSymbolLength;
+		int capacity = Integer.highestOneBit( maximumSize ) << 2;
+		symbols = new byte [capacity] [];
+		hashes = new int [capacity];
+	}
+
+	/**
+	 * Forgets every symbol and resets the counters.
+	 */
+	public void clear() {
+		Arrays.fill( symbols, null );
+		Arrays.fill( hashes, 0 );
+		size = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * @return the number of keys that were found in the table.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public int getMaximumSymbolLength() {
+		return maximumSymbolLength;
+	}
+
+	/**
+	 * @return the number of keys that were not found in the table, whether or not they were added to
+	 *         it.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the canonical array holding the given key, adding a copy of the key to the table if it
+	 *         is new and there is room for it, or null if the key is neither present nor added. Only
+	 *         a few slots are examined, so a key that would sit further from its own slot is a miss.
+	 */
+	public byte [] intern( byte [] buffer, int offset, int length ) {
+		if( length > maximumSymbolLength ) {
+			misses++;
+			return null;
+		}
+		int hash = JSONKey.hash( buffer, offset, length );
+		int mask = symbols.length - 1;
+		int slot = hash & mask;
+		for( int probes = 0; symbols[slot] != null; probes++, slot = slot + 1 & mask ) {
+			byte [] symbol = symbols[slot];
+			if( hashes[slot] == hash && isSymbol( symbol, buffer, offset, length ) ) {
+				hits++;
+				return symbol;
+			}
+			if( probes == MAXIMUM_PROBES - 1 ) {
+				misses++;
+				return null;
+			}
+		}
+		misses++;
+		if( size == maximumSize ) {
+			return null;
+		}
+		byte [] symbol = Arrays.copyOfRange( buffer, offset, offset + length );
+		symbols[slot] = symbol;
+		hashes[slot] = hash;
+		size++;
+		return symbol;
+	}
+
+	/**
+	 * @return the number of symbols in the table.
+	 */
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,123 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.util.Arrays;
+
+/**
+ * A parsed document stored as a flat tape of 64-bit entries plus one shared arena of string bytes,
+ * as an alternative to a tree of {@link JSONValue} nodes. Each entry carries a type tag in its top
+ * byte and a payload in the remaining seven:
+ * 
+ * <ul>
+ * <li>null, true and false need no payload;</li>
+ * <li>an int is stored in the low 32 bits of the payload;</li>
+ * <li>a long or double takes a second entry holding its 64 bits;</li>
+ * <li>a string or object key holds the offset of its length-prefixed bytes in the arena;</li>
+ * <li>the start of an array or object holds its child count in bits 32 to 55 and, in the low 32
+ * bits, the index just past its matching end entry, so whole subtrees can be skipped in one step;
+ * </li>
+ * <li>the end of an array or object holds the index of its start.</li>
+ * </ul>
+ * 
+ * Object properties are stored as a key entry followed by the value's entries. Use
+ * {@link #getRoot()} to navigate the document.
+ */
+public final class JSONTape {
+
+	static final int NULL = 'n';
+	static final int TRUE = 't';
+	static final int FALSE = 'f';
+	static final int INTEGER = 'i';
+	static final int LONG = 'l';
+	static final int DOUBLE = 'd';
+	static final int STRING = '"';
+	static final int KEY = 'k';
+	static final int START_ARRAY = '[';
+	static final int END_ARRAY = ']';
+	static final int START_OBJECT = '{';
+	static final int END_OBJECT = '}';
+
+	static final long PAYLOAD = 0x00FFFFFFFFFFFFFFL;
+	static final int MAX_COUNT = 0xFFFFFF;
+
+	final long [] tape;
+	final byte [] strings;
+	private final int root;
+
+	JSONTape( long [] tape, byte [] strings, int root ) {
+		this.tape = tape;
+		this.strings = strings;
+		this.root = root;
+	}
+
+	/**
+	 * @return an estimate, in bytes, of the heap occupied by this document, assuming compressed
+	 *         object pointers.
+	 */
+	public long footprint() {
+		return 24 + 16 + 8L * tape.length + 16 + ( strings.length + 7 & ~7 );
+	}
+
+	public JSONTapeValue getRoot() {
+		return new JSONTapeValue( this, root, tape.length, false );
+	}
+
+	/**
+	 * Burns the string bytes held by this document.
+	 */
+	public void reset() {
+		Arrays.fill( strings, (byte) 0 );
+	}
+
+	/**
+	 * @return the index just past the value starting at the given index.
+	 */
+	int skip( int index ) {
+		long entry = tape[index];
+		switch( (int) ( entry >>> 56 ) ) {
+			case START_ARRAY:
+			case START_OBJECT:
+				return (int) entry;
+			case LONG:
+			case DOUBLE:
+				return index + 2;
+			default:
+				return index + 1;
+		}
+	}
+
+	int stringLength( int index ) {
+		int offset = (int) ( tape[index] & PAYLOAD );
+		return strings[offset] & 0xFF | ( strings[offset + 1] & 0xFF ) << 8 | ( strings[offset + 2] & 0xFF ) << 16 | ( strings[offset + 3] & 0xFF ) << 24;
+	}
+
+	int stringOffset( int index ) {
+		return (int) ( tape[index] & PAYLOAD ) + 4;
+	}
+
+	int tag( int index ) {
+		return (int) ( tape[index] >>> 56 );
+	}
+
+}
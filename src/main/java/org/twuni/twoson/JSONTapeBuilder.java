@@ -0,0 +1,226 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.util.Arrays;
+
+/**
+ * Records parser events onto a {@link JSONTape}. Object keys are stored in the string arena once
+ * each, however many times they appear in the document.
+ */
+public class JSONTapeBuilder extends BaseJSONEventListener {
+
+	private long [] tape = new long [64];
+	private int length;
+	private byte [] strings = new byte [256];
+	private int stringsLength;
+	private int [] starts = new int [16];
+	private int [] counts = new int [16];
+	private int depth;
+	private int root = -1;
+	private int [] keys = new int [64];
+	private int keyCount;
+
+	private void append( int tag, long payload ) {
+		if( length == tape.length ) {
+			tape = Arrays.copyOf( tape, length << 1 );
+		}
+		tape[length++] = (long) tag << 56 | payload;
+	}
+
+	private int appendString( int tag, byte [] buffer, int offset, int length ) {
+		if( stringsLength + 4 + length > strings.length ) {
+			strings = Arrays.copyOf( strings, Math.max( stringsLength + 4 + length, stringsLength << 1 ) );
+		}
+		int position = stringsLength;
+		strings[position] = (byte) length;
+		strings[position + 1] = (byte) ( length >>> 8 );
+		strings[position + 2] = (byte) ( length >>> 16 );
+		strings[position + 3] = (byte) ( length >>> 24 );
+		System.arraycopy( buffer, offset, strings, position + 4, length );
+		stringsLength += 4 + length;
+		append( tag, position );
+		return position;
+	}
+
+	private void close( int tag ) {
+		depth--;
+		int start = starts[depth];
+		append( tag, start );
+		tape[start] |= (long) Math.min( counts[depth], JSONTape.MAX_COUNT ) << 32 | length;
+	}
+
+	/**
+	 * @return the tape recorded so far, trimmed to size, or null if no complete value has been recorded.
+	 */
+	public JSONTape getResult() {
+		if( root < 0 ) {
+			return null;
+		}
+		return new JSONTape( Arrays.copyOf( tape, length ), Arrays.copyOf( strings, stringsLength ), root );
+	}
+
+	private boolean isKey( int position, byte [] buffer, int offset, int length ) {
+		if( lengthAt( position ) != length ) {
+			return false;
+		}
+		for( int i = 0; i < length; i++ ) {
+			if( strings[position + 4 + i] != buffer[offset + i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int lengthAt( int position ) {
+		return strings[position] & 0xFF | ( strings[position + 1] & 0xFF ) << 8 | ( strings[position + 2] & 0xFF ) << 16 | ( strings[position + 3] & 0xFF ) << 24;
+	}
+
+	@Override
+	public void onBeginArray() {
+		open( JSONTape.START_ARRAY );
+	}
+
+	@Override
+	public void onBeginObject() {
+		open( JSONTape.START_OBJECT );
+	}
+
+	@Override
+	public void onBoolean( boolean value ) {
+		onValue();
+		append( value ? JSONTape.TRUE : JSONTape.FALSE, 0 );
+	}
+
+	@Override
+	public void onDouble( double value ) {
+		onValue();
+		append( JSONTape.DOUBLE, 0 );
+		append( 0, 0 );
+		tape[length - 1] = Double.doubleToRawLongBits( value );
+	}
+
+	@Override
+	public void onEndArray() {
+		close( JSONTape.END_ARRAY );
+	}
+
+	@Override
+	public void onEndObject() {
+		close( JSONTape.END_OBJECT );
+	}
+
+	@Override
+	public void onInteger( int value ) {
+		onValue();
+		append( JSONTape.INTEGER, value & 0xFFFFFFFFL );
+	}
+
+	@Override
+	public void onLong( long value ) {
+		onValue();
+		append( JSONTape.LONG, 0 );
+		append( 0, 0 );
+		tape[length - 1] = value;
+	}
+
+	@Override
+	public void onNull() {
+		onValue();
+		append( JSONTape.NULL, 0 );
+	}
+
+	@Override
+	public void onObjectKey( byte [] value ) {
+		onObjectKey( value, 0, value.length );
+	}
+
+	/**
+	 * Looks the key up in an open-addressing table of arena offsets, adding it to the arena only if it
+	 * has not been seen before.
+	 */
+	@Override
+	public void onObjectKey( byte [] buffer, int offset, int length ) {
+		int mask = keys.length - 1;
+		int slot = JSONKey.hash( buffer, offset, length ) & mask;
+		for( int position = keys[slot] - 1; position >= 0; position = keys[slot] - 1 ) {
+			if( isKey( position, buffer, offset, length ) ) {
+				append( JSONTape.KEY, position );
+				return;
+			}
+			slot = slot + 1 & mask;
+		}
+		keys[slot] = appendString( JSONTape.KEY, buffer, offset, length ) + 1;
+		if( ++keyCount > keys.length >>> 1 ) {
+			rehash();
+		}
+	}
+
+	@Override
+	public void onString( byte [] value ) {
+		onString( value, 0, value.length );
+	}
+
+	@Override
+	public void onString( byte [] buffer, int offset, int length ) {
+		onValue();
+		appendString( JSONTape.STRING, buffer, offset, length );
+	}
+
+	private void onValue() {
+		if( depth > 0 ) {
+			counts[depth - 1]++;
+		} else {
+			root = length;
+		}
+	}
+
+	private void open( int tag ) {
+		onValue();
+		if( depth == starts.length ) {
+			starts = Arrays.copyOf( starts, depth << 1 );
+			counts = Arrays.copyOf( counts, depth << 1 );
+		}
+		starts[depth] = length;
+		counts[depth] = 0;
+		depth++;
+		append( tag, 0 );
+	}
+
+	private void rehash() {
+		int [] old = keys;
+		keys = new int [old.length << 1];
+		int mask = keys.length - 1;
+		for( int i = 0; i < old.length; i++ ) {
+			int position = old[i] - 1;
+			if( position >= 0 ) {
+				int slot = JSONKey.hash( strings, position + 4, lengthAt( position ) ) & mask;
+				while( keys[slot] != 0 ) {
+					slot = slot + 1 & mask;
+				}
+				keys[slot] = old[i];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,343 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.util.Arrays;
+
+/**
+ * A view of one value in a {@link JSONTape}, offering the same navigation as {@link JSONValue}.
+ * Views are cheap to create and hold no state of their own beyond their position on the tape.
+ * 
+ * Looking up an array element by index or an object property by key walks the container's children
+ * in order, skipping nested containers in one step each. To visit every child, use {@link #first()}
+ * and {@link #next()} rather than indexing.
+ */
+public final class JSONTapeValue {
+
+	private final JSONTape tape;
+	private final int index;
+	private final int end;
+	private final boolean keyed;
+
+	JSONTapeValue( JSONTape tape, int index, int end, boolean keyed ) {
+		this.tape = tape;
+		this.index = index;
+		this.end = end;
+		this.keyed = keyed;
+	}
+
+	public boolean booleanValue() {
+		switch( tape.tag( index ) ) {
+			case JSONTape.TRUE:
+			case JSONTape.STRING:
+				return true;
+			case JSONTape.INTEGER:
+			case JSONTape.LONG:
+			case JSONTape.DOUBLE:
+				return doubleValue() != 0;
+			default:
+				return false;
+		}
+	}
+
+	private int containerEnd() {
+		return tape.skip( index ) - 1;
+	}
+
+	private int count() {
+		int count = (int) ( tape.tape[index] >>> 32 & JSONTape.MAX_COUNT );
+		if( count == JSONTape.MAX_COUNT ) {
+			count = 0;
+			for( JSONTapeValue child = first(); child != null; child = child.next() ) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public double doubleValue() {
+		switch( tape.tag( index ) ) {
+			case JSONTape.DOUBLE:
+				return Double.longBitsToDouble( tape.tape[index + 1] );
+			case JSONTape.LONG:
+				return tape.tape[index + 1];
+			case JSONTape.INTEGER:
+				return (int) tape.tape[index];
+			case JSONTape.TRUE:
+			case JSONTape.STRING:
+				return 1;
+			default:
+				return 0;
+		}
+	}
+
+	private void expect( JSONValue.Type expectedType ) {
+		JSONValue.Type type = type();
+		if( !expectedType.equals( type ) ) {
+			throw new IllegalStateException( String.format( "Expected type %s, was %s", expectedType, type ) );
+		}
+	}
+
+	/**
+	 * @return the first element of this array or the value of the first property of this object, or
+	 *         null if it is empty.
+	 */
+	public JSONTapeValue first() {
+		switch( tape.tag( index ) ) {
+			case JSONTape.START_ARRAY:
+				return index + 1 < containerEnd() ? new JSONTapeValue( tape, index + 1, containerEnd(), false ) : null;
+			case JSONTape.START_OBJECT:
+				return index + 1 < containerEnd() ? new JSONTapeValue( tape, index + 2, containerEnd(), true ) : null;
+			default:
+				throw new IllegalStateException( String.format( "Expected type %s or %s, was %s", JSONValue.Type.ARRAY, JSONValue.Type.OBJECT, type() ) );
+		}
+	}
+
+	public JSONTapeValue get( byte [] key ) {
+		expect( JSONValue.Type.OBJECT );
+		int end = containerEnd();
+		for( int i = index + 1; i < end; i = tape.skip( i + 1 ) ) {
+			if( isKey( i, key ) ) {
+				return new JSONTapeValue( tape, i + 1, end, true );
+			}
+		}
+		return null;
+	}
+
+	public JSONTapeValue get( int index ) {
+		expect( JSONValue.Type.ARRAY );
+		int end = containerEnd();
+		int i = this.index + 1;
+		for( int k = 0; k < index && i < end; k++ ) {
+			i = tape.skip( i );
+		}
+		if( index < 0 || i >= end ) {
+			throw new ArrayIndexOutOfBoundsException( index );
+		}
+		return new JSONTapeValue( tape, i, end, false );
+	}
+
+	public JSONTapeValue get( String key ) {
+		return get( JSONUtils.toByteArray( key ) );
+	}
+
+	public int intValue() {
+		switch( tape.tag( index ) ) {
+			case JSONTape.INTEGER:
+				return (int) tape.tape[index];
+			case JSONTape.LONG:
+				return (int) tape.tape[index + 1];
+			default:
+				return (int) doubleValue();
+		}
+	}
+
+	private boolean isKey( int i, byte [] key ) {
+		int length = tape.stringLength( i );
+		if( length != key.length ) {
+			return false;
+		}
+		int offset = tape.stringOffset( i );
+		for( int k = 0; k < length; k++ ) {
+			if( tape.strings[offset + k] != key[k] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the key of the property whose value this is.
+	 * @throws IllegalStateException
+	 *             if this value is not the value of an object property.
+	 */
+	public byte [] key() {
+		if( !keyed ) {
+			throw new IllegalStateException( "Not an object property" );
+		}
+		return string( index - 1 );
+	}
+
+	public byte [] keyAt( int index ) {
+		expect( JSONValue.Type.OBJECT );
+		int end = containerEnd();
+		int i = this.index + 1;
+		for( int k = 0; k < index && i < end; k++ ) {
+			i = tape.skip( i + 1 );
+		}
+		if( index < 0 || i >= end ) {
+			throw new ArrayIndexOutOfBoundsException( index );
+		}
+		return string( i );
+	}
+
+	public int length() {
+		switch( tape.tag( index ) ) {
+			case JSONTape.START_ARRAY:
+			case JSONTape.START_OBJECT:
+				return count();
+			case JSONTape.STRING:
+				return tape.stringLength( index );
+			default:
+				return 1;
+		}
+	}
+
+	public long longValue() {
+		switch( tape.tag( index ) ) {
+			case JSONTape.INTEGER:
+				return (int) tape.tape[index];
+			case JSONTape.LONG:
+				return tape.tape[index + 1];
+			default:
+				return (long) doubleValue();
+		}
+	}
+
+	/**
+	 * @return the next element of the enclosing array or the value of the next property of the
+	 *         enclosing object, or null if this is the last one.
+	 */
+	public JSONTapeValue next() {
+		int i = tape.skip( index );
+		if( keyed ) {
+			return i < end ? new JSONTapeValue( tape, i + 1, end, true ) : null;
+		}
+		return i < end ? new JSONTapeValue( tape, i, end, false ) : null;
+	}
+
+	/**
+	 * Passes this value to the given listener as the same events a parser would produce for it.
+	 */
+	public void replay( JSONEventListener listener ) {
+		JSONSliceEventListener slices = listener instanceof JSONSliceEventListener ? (JSONSliceEventListener) listener : null;
+		int end = tape.skip( index );
+		for( int i = index; i < end; i++ ) {
+			long entry = tape.tape[i];
+			int tag = (int) ( entry >>> 56 );
+			switch( tag ) {
+				case JSONTape.NULL:
+					listener.onNull();
+					break;
+				case JSONTape.TRUE:
+					listener.onBoolean( true );
+					break;
+				case JSONTape.FALSE:
+					listener.onBoolean( false );
+					break;
+				case JSONTape.INTEGER:
+					listener.onInteger( (int) entry );
+					break;
+				case JSONTape.LONG:
+					listener.onLong( tape.tape[++i] );
+					break;
+				case JSONTape.DOUBLE:
+					listener.onDouble( Double.longBitsToDouble( tape.tape[++i] ) );
+					break;
+				case JSONTape.START_ARRAY:
+					listener.onBeginArray();
+					break;
+				case JSONTape.END_ARRAY:
+					listener.onEndArray();
+					break;
+				case JSONTape.START_OBJECT:
+					listener.onBeginObject();
+					break;
+				case JSONTape.END_OBJECT:
+					listener.onEndObject();
+					break;
+				case JSONTape.KEY:
+					replayString( listener, slices, i, true );
+					break;
+				case JSONTape.STRING:
+					replayString( listener, slices, i, false );
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private void replayString( JSONEventListener listener, JSONSliceEventListener slices, int i, boolean isKey ) {
+		int offset = tape.stringOffset( i );
+		int length = tape.stringLength( i );
+		if( slices != null ) {
+			if( isKey ) {
+				slices.onObjectKey( tape.strings, offset, length );
+			} else {
+				slices.onString( tape.strings, offset, length );
+			}
+		} else {
+			byte [] value = Arrays.copyOfRange( tape.strings, offset, offset + length );
+			if( isKey ) {
+				listener.onObjectKey( value );
+			} else {
+				listener.onString( value );
+			}
+		}
+	}
+
+	private byte [] string( int i ) {
+		int offset = tape.stringOffset( i );
+		return Arrays.copyOfRange( tape.strings, offset, offset + tape.stringLength( i ) );
+	}
+
+	/**
+	 * @return a copy of this string's bytes, or null if this is not a string.
+	 */
+	public byte [] stringValue() {
+		return tape.tag( index ) == JSONTape.STRING ? string( index ) : null;
+	}
+
+	/**
+	 * @return this value and everything beneath it, copied into a tree of {@link JSONValue} nodes.
+	 */
+	public JSONValue toJSONValue() {
+		JSONValueBuilder builder = new JSONValueBuilder();
+		replay( builder );
+		return builder.getResult();
+	}
+
+	public JSONValue.Type type() {
+		switch( tape.tag( index ) ) {
+			case JSONTape.TRUE:
+			case JSONTape.FALSE:
+				return JSONValue.Type.BOOLEAN;
+			case JSONTape.INTEGER:
+				return JSONValue.Type.INTEGER;
+			case JSONTape.LONG:
+				return JSONValue.Type.LONG;
+			case JSONTape.DOUBLE:
+				return JSONValue.Type.DOUBLE;
+			case JSONTape.STRING:
+				return JSONValue.Type.STRING;
+			case JSONTape.START_ARRAY:
+				return JSONValue.Type.ARRAY;
+			case JSONTape.START_OBJECT:
+				return JSONValue.Type.OBJECT;
+			default:
+				return JSONValue.Type.NULL;
+		}
+	}
+
+}
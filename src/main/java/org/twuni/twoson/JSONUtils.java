@@ -15,6 +15,17 @@ public class JSONUtils {
 		return c;
 	}
 
+	/**
+	 * @return the given range of UTF-8 bytes, decoded.
+	 */
+	static String fromByteArray( byte [] bytes, int offset, int length ) {
+		try {
+			return new String( bytes, offset, length, "UTF-8" );
+		} catch( UnsupportedEncodingException exception ) {
+			return new String( bytes, offset, length );
+		}
+	}
+
 	public static byte [] toByteArray( String string ) {
 		if( string == null ) {
 			return null;
@@ -1,5 +1,8 @@
 package org.twuni.twoson;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 public class JSONValue {
@@ -17,6 +20,20 @@ public class JSONValue {
 
 	}
 
+	/**
+	 * Objects with at least this many properties are indexed by key on first lookup.
+	 */
+	private static final int INDEX_THRESHOLD = 16;
+
+	/**
+	 * The furthest a key may lie from its own slot in the index. An object whose keys cannot all be
+	 * placed that close goes unindexed and is scanned instead, so keys made to collide cost no more
+	 * than a scan.
+	 */
+	private static final int MAXIMUM_PROBES = 16;
+
+	private static final int [] UNINDEXED = new int [0];
+
 	public final Type type;
 	public final boolean booleanValue;
 	public final int intValue;
@@ -26,6 +43,11 @@ public class JSONValue {
 	public final JSONObjectProperty [] objectValue;
 	public final JSONValue [] arrayValue;
 
+	/**
+	 * An open-addressing table of key hashes and property positions, built lazily for large objects.
+	 */
+	private volatile int [] index;
+
 	public JSONValue() {
 		this( Type.NULL, false, 0, 0, 0, null, null, null );
 	}
@@ -83,8 +105,28 @@ public class JSONValue {
 		}
 	}
 
+	private JSONValue find( int [] index, byte [] key, int hash ) {
+		int mask = ( index.length >>> 1 ) - 1;
+		int slot = hash & mask;
+		for( int probes = 0; probes < MAXIMUM_PROBES && index[slot << 1 | 1] != 0; probes++, slot = slot + 1 & mask ) {
+			if( index[slot << 1] == hash ) {
+				JSONObjectProperty property = objectValue[index[slot << 1 | 1] - 1];
+				if( property.is( key ) ) {
+					return property.value;
+				}
+			}
+		}
+		return null;
+	}
+
 	public JSONValue get( byte [] key ) {
 		expect( Type.OBJECT );
+		if( objectValue.length >= INDEX_THRESHOLD ) {
+			int [] index = index();
+			if( index != UNINDEXED ) {
+				return find( index, key, JSONKey.hash( key, 0, key.length ) );
+			}
+		}
 		for( int i = 0; i < objectValue.length; i++ ) {
 			JSONObjectProperty property = objectValue[i];
 			if( property.is( key ) ) {
@@ -99,10 +141,59 @@ public class JSONValue {
 		return arrayValue[index];
 	}
 
+	/**
+	 * Looks up a property by a precompiled key, which spares re-encoding and, for large objects,
+	 * rehashing the key on every lookup.
+	 */
+	public JSONValue get( JSONKey key ) {
+		expect( Type.OBJECT );
+		if( objectValue.length >= INDEX_THRESHOLD ) {
+			int [] index = index();
+			if( index != UNINDEXED ) {
+				return find( index, key.bytes, key.hash );
+			}
+		}
+		return get( key.bytes );
+	}
+
 	public JSONValue get( String key ) {
 		return get( JSONUtils.toByteArray( key ) );
 	}
 
+	/**
+	 * @return the key index for this object, building it on first use, or {@link #UNINDEXED} if some
+	 *         key could not be placed within {@link #MAXIMUM_PROBES} slots of its own. Each slot holds
+	 *         a key hash and the position of its property plus one, with zero marking an empty slot.
+	 *         Only the first occurrence of a repeated key is indexed, so it resolves as a linear scan
+	 *         would.
+	 */
+	private int [] index() {
+		int [] index = this.index;
+		if( index == null ) {
+			int capacity = Integer.highestOneBit( objectValue.length ) << 2;
+			int mask = capacity - 1;
+			index = new int [capacity << 1];
+			insert: for( int i = 0; i < objectValue.length; i++ ) {
+				byte [] key = objectValue[i].key;
+				int hash = JSONKey.hash( key, 0, key.length );
+				int slot = hash & mask;
+				for( int probes = 0; index[slot << 1 | 1] != 0; probes++, slot = slot + 1 & mask ) {
+					if( index[slot << 1] == hash && objectValue[index[slot << 1 | 1] - 1].is( key ) ) {
+						continue insert;
+					}
+					if( probes == MAXIMUM_PROBES - 1 ) {
+						this.index = UNINDEXED;
+						return UNINDEXED;
+					}
+				}
+				index[slot << 1] = hash;
+				index[slot << 1 | 1] = i + 1;
+			}
+			this.index = index;
+		}
+		return index;
+	}
+
 	public byte [] keyAt( int index ) {
 		expect( Type.OBJECT );
 		return objectValue[index].key;
@@ -122,6 +213,7 @@ public class JSONValue {
 	}
 
 	public void reset() {
+		index = null;
 		if( stringValue != null ) {
 			Arrays.fill( stringValue, (byte) 0 );
 		}
@@ -139,27 +231,27 @@ public class JSONValue {
 		}
 	}
 
+	/**
+	 * @return this value as compact JSON.
+	 */
 	@Override
 	public String toString() {
-		switch( type ) {
-			case ARRAY:
-				return Arrays.toString( arrayValue );
-			case OBJECT:
-				return Arrays.toString( objectValue ).replaceAll( "^\\[(.+)\\]$", "{$1}" );
-			case STRING:
-				return String.format( "\"%s\"", new String( stringValue ) );
-			case BOOLEAN:
-				return Boolean.toString( booleanValue );
-			case DOUBLE:
-				return Double.toString( doubleValue );
-			case INTEGER:
-				return Integer.toString( intValue );
-			case LONG:
-				return Long.toString( longValue );
-			case NULL:
-				return "null";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writeTo( out );
+		} catch( IOException exception ) {
+			throw new IllegalStateException( exception );
 		}
-		return "";
+		return JSONUtils.fromByteArray( out.toByteArray(), 0, out.size() );
+	}
+
+	/**
+	 * Writes this value as compact JSON to the given stream, which is flushed but left open.
+	 */
+	public void writeTo( OutputStream out ) throws IOException {
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.write( this );
+		generator.release();
 	}
 
 }
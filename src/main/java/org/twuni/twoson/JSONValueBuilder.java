@@ -1,34 +1,88 @@
 package org.twuni.twoson;
 
 import java.util.Arrays;
-import java.util.Stack;
 
 public class JSONValueBuilder extends BaseJSONEventListener {
 
-	private final Stack<JSONValue> tree = new Stack<JSONValue>();
+	/**
+	 * Collects the children of one open array or object. Levels are kept once allocated, so their
+	 * buffers are reused by later containers at the same depth.
+	 */
+	private static class Level {
+
+		private byte [] key;
+		private byte [][] keys = new byte [8] [];
+		private JSONValue [] values = new JSONValue [8];
+		private int size;
+
+		public void add( byte [] key, JSONValue value ) {
+			if( size == values.length ) {
+				keys = Arrays.copyOf( keys, size << 1 );
+				values = Arrays.copyOf( values, size << 1 );
+			}
+			keys[size] = key;
+			values[size] = value;
+			size++;
+		}
+
+		public void clear() {
+			Arrays.fill( keys, 0, size, null );
+			Arrays.fill( values, 0, size, null );
+			key = null;
+			size = 0;
+		}
+
+		public JSONValue toArray() {
+			return new JSONValue( Arrays.copyOf( values, size ) );
+		}
+
+		public JSONValue toObject() {
+			JSONObjectProperty [] properties = new JSONObjectProperty [size];
+			for( int i = 0; i < size; i++ ) {
+				properties[i] = new JSONObjectProperty( keys[i], values[i] );
+			}
+			return new JSONValue( properties );
+		}
+
+	}
+
+	private Level [] levels = new Level [8];
+	private int depth;
 	private byte [] key;
 	private JSONValue result;
 
-	public JSONValueBuilder() {
-		tree.push( new JSONValue() );
+	private void close( JSONValue value ) {
+		Level level = levels[depth];
+		key = level.key;
+		level.clear();
+		onJSONValue( value );
 	}
 
 	public JSONValue getResult() {
 		return result;
 	}
 
+	private void open() {
+		if( depth == levels.length ) {
+			levels = Arrays.copyOf( levels, depth << 1 );
+		}
+		Level level = levels[depth];
+		if( level == null ) {
+			level = new Level();
+			levels[depth] = level;
+		}
+		level.key = key;
+		depth++;
+	}
+
 	@Override
 	public void onBeginArray() {
-		JSONValue value = new JSONValue( new JSONValue [0] );
-		onJSONValue( value );
-		tree.push( value );
+		open();
 	}
 
 	@Override
 	public void onBeginObject() {
-		JSONValue value = new JSONValue( new JSONObjectProperty [0] );
-		onJSONValue( value );
-		tree.push( value );
+		open();
 	}
 
 	@Override
@@ -43,14 +97,14 @@ public class JSONValueBuilder extends BaseJSONEventListener {
 
 	@Override
 	public void onEndArray() {
-		result = tree.pop();
-		updateReference();
+		depth--;
+		close( levels[depth].toArray() );
 	}
 
 	@Override
 	public void onEndObject() {
-		result = tree.pop();
-		updateReference();
+		depth--;
+		close( levels[depth].toObject() );
 	}
 
 	@Override
@@ -59,41 +113,11 @@ public class JSONValueBuilder extends BaseJSONEventListener {
 	}
 
 	public void onJSONValue( JSONValue value ) {
-
-		if( tree.isEmpty() ) {
-			return;
+		if( depth > 0 ) {
+			levels[depth - 1].add( key, value );
+		} else {
+			result = value;
 		}
-
-		JSONValue target = tree.peek();
-
-		switch( target.type ) {
-
-			case ARRAY:
-
-				tree.pop();
-				tree.push( new JSONValue( target, value ) );
-				break;
-
-			case OBJECT:
-
-				tree.pop();
-				tree.push( new JSONValue( target, new JSONObjectProperty( key, value ) ) );
-				break;
-
-			case NULL:
-
-				tree.pop();
-				tree.push( value );
-				result = value;
-				break;
-
-			default:
-
-				tree.push( value );
-				break;
-
-		}
-
 	}
 
 	@Override
@@ -111,32 +135,40 @@ public class JSONValueBuilder extends BaseJSONEventListener {
 		key = Arrays.copyOf( value, value.length );
 	}
 
+	@Override
+	public void onObjectKey( byte [] buffer, int offset, int length ) {
+		key = Arrays.copyOfRange( buffer, offset, offset + length );
+	}
+
+	/**
+	 * Shares the symbol among every property with this key, rather than copying it.
+	 */
+	@Override
+	public void onObjectKeySymbol( byte [] symbol ) {
+		key = symbol;
+	}
+
+	/**
+	 * Forgets the value built so far, along with any containers left open, so that nothing of one
+	 * document is held while the next is built.
+	 */
+	public void reset() {
+		for( int i = 0; i < depth; i++ ) {
+			levels[i].clear();
+		}
+		depth = 0;
+		key = null;
+		result = null;
+	}
+
 	@Override
 	public void onString( byte [] value ) {
 		onJSONValue( new JSONValue( Arrays.copyOf( value, value.length ) ) );
 	}
 
-	private void updateReference() {
-		if( tree.isEmpty() ) {
-			return;
-		}
-		JSONValue target = tree.peek();
-		switch( target.type ) {
-			case OBJECT:
-				if( target.objectValue.length > 0 ) {
-					int index = target.objectValue.length - 1;
-					JSONObjectProperty property = target.objectValue[index];
-					target.objectValue[index] = new JSONObjectProperty( property.key, result );
-				}
-				break;
-			case ARRAY:
-				if( target.arrayValue.length > 0 ) {
-					target.arrayValue[target.arrayValue.length - 1] = result;
-				}
-				break;
-			default:
-				break;
-		}
+	@Override
+	public void onString( byte [] buffer, int offset, int length ) {
+		onJSONValue( new JSONValue( Arrays.copyOfRange( buffer, offset, offset + length ) ) );
 	}
 
 }
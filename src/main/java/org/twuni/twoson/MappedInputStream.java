@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Feeds a file to a parser by mapping it into memory a segment at a time, so that files larger than
+ * the 2 GB a single mapping can hold are read without a system call for every chunk. Each chunk is
+ * copied straight out of the mapping.
+ * 
+ * Mappings are released by the garbage collector once they are no longer referenced, as the JDK
+ * offers no way to release them sooner.
+ */
+final class MappedInputStream extends InputStream {
+
+	static final long SEGMENT_SIZE = 256L * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long segmentSize;
+	private final long end;
+	private long position;
+	private MappedByteBuffer segment;
+
+	/**
+	 * Reads the given channel from its current position to its end.
+	 */
+	public MappedInputStream( FileChannel channel ) throws IOException {
+		this( channel, SEGMENT_SIZE );
+	}
+
+	MappedInputStream( FileChannel channel, long segmentSize ) throws IOException {
+		this.channel = channel;
+		this.segmentSize = segmentSize;
+		position = channel.position();
+		end = channel.size();
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min( Integer.MAX_VALUE, end - position + ( segment != null ? segment.remaining() : 0 ) );
+	}
+
+	/**
+	 * Maps the next segment once the current one has been read.
+	 * 
+	 * @return true if there is anything left to read.
+	 */
+	private boolean hasRemaining() throws IOException {
+		if( segment != null && segment.hasRemaining() ) {
+			return true;
+		}
+		segment = null;
+		if( position >= end ) {
+			return false;
+		}
+		long length = Math.min( segmentSize, end - position );
+		segment = channel.map( FileChannel.MapMode.READ_ONLY, position, length );
+		position += length;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if( !hasRemaining() ) {
+			return -1;
+		}
+		return segment.get() & 0xFF;
+	}
+
+	@Override
+	public int read( byte [] b, int off, int len ) throws IOException {
+		if( !hasRemaining() ) {
+			return -1;
+		}
+		int n = Math.min( len, segment.remaining() );
+		segment.get( b, off, n );
+		return n;
+	}
+
+}
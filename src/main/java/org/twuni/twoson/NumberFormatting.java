@@ -0,0 +1,427 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.math.BigInteger;
+
+/**
+ * Writes numbers as decimal text straight into a byte array, without creating strings. Integers are
+ * written two digits at a time from a table. Doubles and floats are written with the fewest digits
+ * that read back as the same value, found with Giulietti's Schubfach algorithm, and laid out as
+ * {@link Double#toString(double)} lays them out: plainly from 10<sup>-3</sup> up to 10<sup>7</sup>,
+ * and in scientific notation otherwise.
+ */
+final class NumberFormatting {
+
+	/**
+	 * The most bytes any of these methods writes.
+	 */
+	static final int MAXIMUM_LENGTH = 32;
+
+	static final int MAXIMUM_FRACTION_DIGITS = 17;
+
+	private static final byte [] DIGITS = new byte [200];
+	private static final byte [] NAN = JSONUtils.toByteArray( "NaN" );
+	private static final byte [] INFINITY = JSONUtils.toByteArray( "Infinity" );
+	private static final byte [] NEGATIVE_INFINITY = JSONUtils.toByteArray( "-Infinity" );
+	private static final byte [] MINIMUM_LONG = JSONUtils.toByteArray( Long.toString( Long.MIN_VALUE ) );
+
+	private static final long [] LONG_POWERS_OF_TEN = new long [MAXIMUM_FRACTION_DIGITS + 1];
+	private static final double [] POWERS_OF_TEN = new double [MAXIMUM_FRACTION_DIGITS + 1];
+
+	private static final int DOUBLE_Q_MIN = -1074;
+	private static final long DOUBLE_C_MIN = 1L << 52;
+	private static final int FLOAT_Q_MIN = -149;
+	private static final int FLOAT_C_MIN = 1 << 23;
+	private static final long MASK_63 = ( 1L << 63 ) - 1;
+	private static final long MASK_32 = ( 1L << 32 ) - 1;
+
+	private static final int K_MIN = -324;
+	private static final int K_MAX = 292;
+
+	/**
+	 * The powers of ten 10<sup>-k</sup>, each scaled by a power of two into [2<sup>125</sup>,
+	 * 2<sup>126</sup>) and rounded up, split into their high and low 63 bits.
+	 */
+	private static final long [] G1 = new long [K_MAX - K_MIN + 1];
+	private static final long [] G0 = new long [K_MAX - K_MIN + 1];
+
+	static {
+		for( int i = 0; i < 100; i++ ) {
+			DIGITS[2 * i] = (byte) ( '0' + i / 10 );
+			DIGITS[2 * i + 1] = (byte) ( '0' + i % 10 );
+		}
+		long power = 1;
+		for( int i = 0; i <= MAXIMUM_FRACTION_DIGITS; i++ ) {
+			LONG_POWERS_OF_TEN[i] = power;
+			POWERS_OF_TEN[i] = power;
+			power *= 10;
+		}
+		BigInteger mask = BigInteger.valueOf( MASK_63 );
+		for( int k = K_MIN; k <= K_MAX; k++ ) {
+			int r = flog2pow10( -k ) - 125;
+			BigInteger numerator = k <= 0 ? BigInteger.TEN.pow( -k ) : BigInteger.ONE;
+			BigInteger denominator = k > 0 ? BigInteger.TEN.pow( k ) : BigInteger.ONE;
+			if( r < 0 ) {
+				numerator = numerator.shiftLeft( -r );
+			} else {
+				denominator = denominator.shiftLeft( r );
+			}
+			BigInteger g = numerator.divide( denominator ).add( BigInteger.ONE );
+			G1[k - K_MIN] = g.shiftRight( 63 ).longValue();
+			G0[k - K_MIN] = g.and( mask ).longValue();
+		}
+	}
+
+	/**
+	 * @return floor(log<sub>10</sub>(2<sup>e</sup>)).
+	 */
+	private static int flog10pow2( int e ) {
+		return (int) ( e * 661971961083L >> 41 );
+	}
+
+	/**
+	 * @return floor(log<sub>10</sub>(3/4 * 2<sup>e</sup>)).
+	 */
+	private static int flog10threeQuartersPow2( int e ) {
+		return (int) ( e * 661971961083L - 274743187321L >> 41 );
+	}
+
+	/**
+	 * @return floor(log<sub>2</sub>(10<sup>e</sup>)).
+	 */
+	private static int flog2pow10( int e ) {
+		return (int) ( e * 913124641741L >> 38 );
+	}
+
+	/**
+	 * Lays out the decimal f * 10<sup>e</sup>, for a positive f, as {@link Double#toString(double)}
+	 * would.
+	 */
+	private static int format( byte [] buffer, int at, long f, int e ) {
+		while( f % 10 == 0 ) {
+			f /= 10;
+			e++;
+		}
+		int n = length( f );
+		int exponent = n + e - 1;
+		if( 0 <= exponent && exponent < 7 ) {
+			if( n <= exponent + 1 ) {
+				at = writeDigits( buffer, at, f, n );
+				for( int i = n; i <= exponent; i++ ) {
+					buffer[at++] = '0';
+				}
+				buffer[at++] = '.';
+				buffer[at++] = '0';
+				return at;
+			}
+			writeDigits( buffer, at + 1, f, n );
+			System.arraycopy( buffer, at + 1, buffer, at, exponent + 1 );
+			buffer[at + exponent + 1] = '.';
+			return at + n + 1;
+		}
+		if( -3 <= exponent && exponent < 0 ) {
+			buffer[at++] = '0';
+			buffer[at++] = '.';
+			for( int i = -1; i > exponent; i-- ) {
+				buffer[at++] = '0';
+			}
+			return writeDigits( buffer, at, f, n );
+		}
+		writeDigits( buffer, at + 1, f, n );
+		buffer[at] = buffer[at + 1];
+		buffer[at + 1] = '.';
+		at += n + 1;
+		if( n == 1 ) {
+			buffer[at++] = '0';
+		}
+		buffer[at++] = 'E';
+		if( exponent < 0 ) {
+			buffer[at++] = '-';
+			exponent = -exponent;
+		}
+		return writeDigits( buffer, at, exponent, length( exponent ) );
+	}
+
+	/**
+	 * @return the number of decimal digits in the given non-negative value.
+	 */
+	private static int length( long value ) {
+		int n = 1;
+		for( long power = 10; n < 19 && value >= power; power *= 10 ) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the product of g and cp, scaled down by 2<sup>127</sup> and rounded to odd.
+	 */
+	private static long rop( long g1, long g0, long cp ) {
+		long x1 = DoubleConversion.multiplyHighUnsigned( g0, cp );
+		long y0 = g1 * cp;
+		long y1 = DoubleConversion.multiplyHighUnsigned( g1, cp );
+		long z = ( y0 >>> 1 ) + x1;
+		long vbp = y1 + ( z >>> 63 );
+		return vbp | ( z & MASK_63 ) + MASK_63 >>> 63;
+	}
+
+	/**
+	 * @return the product of g and cp, scaled down by 2<sup>95</sup> and rounded to odd.
+	 */
+	private static int rop( long g, long cp ) {
+		long x1 = DoubleConversion.multiplyHighUnsigned( g, cp );
+		long vbp = x1 >>> 31;
+		return (int) ( vbp | ( x1 & MASK_32 ) + MASK_32 >>> 32 );
+	}
+
+	/**
+	 * Finds the shortest decimal in the rounding interval of the double c * 2<sup>q</sup>, then
+	 * scales it by 10<sup>dk</sup> and writes it.
+	 */
+	private static int toDecimal( byte [] buffer, int at, int q, long c, int dk ) {
+		int out = (int) c & 1;
+		long cb = c << 2;
+		long cbr = cb + 2;
+		long cbl;
+		int k;
+		if( c != DOUBLE_C_MIN || q == DOUBLE_Q_MIN ) {
+			cbl = cb - 2;
+			k = flog10pow2( q );
+		} else {
+			cbl = cb - 1;
+			k = flog10threeQuartersPow2( q );
+		}
+		int h = q + flog2pow10( -k ) + 2;
+		long g1 = G1[k - K_MIN];
+		long g0 = G0[k - K_MIN];
+		long vb = rop( g1, g0, cb << h );
+		long vbl = rop( g1, g0, cbl << h );
+		long vbr = rop( g1, g0, cbr << h );
+		long s = vb >> 2;
+		if( s >= 100 ) {
+			long sp10 = 10 * DoubleConversion.multiplyHighUnsigned( s, 115292150460684698L << 4 );
+			long tp10 = sp10 + 10;
+			boolean upin = vbl + out <= sp10 << 2;
+			boolean wpin = ( tp10 << 2 ) + out <= vbr;
+			if( upin != wpin ) {
+				return format( buffer, at, upin ? sp10 : tp10, k );
+			}
+		}
+		long t = s + 1;
+		boolean uin = vbl + out <= s << 2;
+		boolean win = ( t << 2 ) + out <= vbr;
+		if( uin != win ) {
+			return format( buffer, at, uin ? s : t, k + dk );
+		}
+		long cmp = vb - ( s + t << 1 );
+		return format( buffer, at, cmp < 0 || cmp == 0 && ( s & 1 ) == 0 ? s : t, k + dk );
+	}
+
+	/**
+	 * Finds the shortest decimal in the rounding interval of the float c * 2<sup>q</sup>, then scales
+	 * it by 10<sup>dk</sup> and writes it.
+	 */
+	private static int toDecimal( byte [] buffer, int at, int q, int c, int dk ) {
+		int out = c & 1;
+		long cb = (long) c << 2;
+		long cbr = cb + 2;
+		long cbl;
+		int k;
+		if( c != FLOAT_C_MIN || q == FLOAT_Q_MIN ) {
+			cbl = cb - 2;
+			k = flog10pow2( q );
+		} else {
+			cbl = cb - 1;
+			k = flog10threeQuartersPow2( q );
+		}
+		int h = q + flog2pow10( -k ) + 33;
+		long g = G1[k - K_MIN] + 1;
+		int vb = rop( g, cb << h );
+		int vbl = rop( g, cbl << h );
+		int vbr = rop( g, cbr << h );
+		int s = vb >> 2;
+		if( s >= 100 ) {
+			int sp10 = 10 * (int) ( s * 1717986919L >>> 34 );
+			int tp10 = sp10 + 10;
+			boolean upin = vbl + out <= sp10 << 2;
+			boolean wpin = ( tp10 << 2 ) + out <= vbr;
+			if( upin != wpin ) {
+				return format( buffer, at, upin ? sp10 : tp10, k );
+			}
+		}
+		int t = s + 1;
+		boolean uin = vbl + out <= s << 2;
+		boolean win = ( t << 2 ) + out <= vbr;
+		if( uin != win ) {
+			return format( buffer, at, uin ? s : t, k + dk );
+		}
+		int cmp = vb - ( s + t << 1 );
+		return format( buffer, at, cmp < 0 || cmp == 0 && ( s & 1 ) == 0 ? s : t, k + dk );
+	}
+
+	private static int write( byte [] buffer, int at, byte [] bytes ) {
+		System.arraycopy( bytes, 0, buffer, at, bytes.length );
+		return at + bytes.length;
+	}
+
+	/**
+	 * Writes the given non-negative value, which has exactly n digits, two digits at a time from the
+	 * right.
+	 */
+	private static int writeDigits( byte [] buffer, int at, long value, int n ) {
+		int i = at + n;
+		while( value >= 100 ) {
+			int r = (int) ( value % 100 );
+			value /= 100;
+			buffer[--i] = DIGITS[2 * r + 1];
+			buffer[--i] = DIGITS[2 * r];
+		}
+		if( value >= 10 ) {
+			buffer[--i] = DIGITS[2 * (int) value + 1];
+			buffer[--i] = DIGITS[2 * (int) value];
+		} else {
+			buffer[--i] = (byte) ( '0' + value );
+		}
+		return at + n;
+	}
+
+	/**
+	 * @return the index just past what was written.
+	 */
+	static int writeDouble( byte [] buffer, int at, double value ) {
+		long bits = Double.doubleToRawLongBits( value );
+		long t = bits & DOUBLE_C_MIN - 1;
+		int bq = (int) ( bits >>> 52 ) & 0x7FF;
+		if( bq == 0x7FF ) {
+			return write( buffer, at, t != 0 ? NAN : bits > 0 ? INFINITY : NEGATIVE_INFINITY );
+		}
+		if( bits < 0 ) {
+			buffer[at++] = '-';
+		}
+		if( bq != 0 ) {
+			int mq = -DOUBLE_Q_MIN + 1 - bq;
+			long c = DOUBLE_C_MIN | t;
+			if( 0 < mq && mq < 53 ) {
+				long f = c >> mq;
+				if( f << mq == c ) {
+					return format( buffer, at, f, 0 );
+				}
+			}
+			return toDecimal( buffer, at, -mq, c, 0 );
+		}
+		if( t != 0 ) {
+			return t < 3 ? toDecimal( buffer, at, DOUBLE_Q_MIN, 10 * t, -1 ) : toDecimal( buffer, at, DOUBLE_Q_MIN, t, 0 );
+		}
+		buffer[at++] = '0';
+		buffer[at++] = '.';
+		buffer[at++] = '0';
+		return at;
+	}
+
+	/**
+	 * Writes the given value rounded to the given number of digits after the decimal point, half up,
+	 * without an exponent. Values too large for that to be exact are written as
+	 * {@link #writeDouble(byte[], int, double)} would write them.
+	 * 
+	 * @return the index just past what was written.
+	 */
+	static int writeFixed( byte [] buffer, int at, double value, int fractionDigits ) {
+		double scaled = Math.abs( value ) * POWERS_OF_TEN[fractionDigits];
+		if( !( scaled < 0x1p53 ) ) {
+			return writeDouble( buffer, at, value );
+		}
+		// Adding a half before truncating would round up values just below one half.
+		long units = (long) scaled;
+		if( scaled - units >= 0.5 ) {
+			units++;
+		}
+		if( value < 0 && units != 0 ) {
+			buffer[at++] = '-';
+		}
+		long divisor = LONG_POWERS_OF_TEN[fractionDigits];
+		at = writeLong( buffer, at, units / divisor );
+		if( fractionDigits > 0 ) {
+			buffer[at++] = '.';
+			long fraction = units % divisor;
+			int n = length( fraction );
+			for( int i = n; i < fractionDigits; i++ ) {
+				buffer[at++] = '0';
+			}
+			at = writeDigits( buffer, at, fraction, n );
+		}
+		return at;
+	}
+
+	/**
+	 * @return the index just past what was written.
+	 */
+	static int writeFloat( byte [] buffer, int at, float value ) {
+		int bits = Float.floatToRawIntBits( value );
+		int t = bits & FLOAT_C_MIN - 1;
+		int bq = bits >>> 23 & 0xFF;
+		if( bq == 0xFF ) {
+			return write( buffer, at, t != 0 ? NAN : bits > 0 ? INFINITY : NEGATIVE_INFINITY );
+		}
+		if( bits < 0 ) {
+			buffer[at++] = '-';
+		}
+		if( bq != 0 ) {
+			int mq = -FLOAT_Q_MIN + 1 - bq;
+			int c = FLOAT_C_MIN | t;
+			if( 0 < mq && mq < 24 ) {
+				int f = c >> mq;
+				if( f << mq == c ) {
+					return format( buffer, at, f, 0 );
+				}
+			}
+			return toDecimal( buffer, at, -mq, c, 0 );
+		}
+		if( t != 0 ) {
+			return t < 8 ? toDecimal( buffer, at, FLOAT_Q_MIN, 10 * t, -1 ) : toDecimal( buffer, at, FLOAT_Q_MIN, t, 0 );
+		}
+		buffer[at++] = '0';
+		buffer[at++] = '.';
+		buffer[at++] = '0';
+		return at;
+	}
+
+	/**
+	 * @return the index just past what was written.
+	 */
+	static int writeLong( byte [] buffer, int at, long value ) {
+		if( value < 0 ) {
+			if( value == Long.MIN_VALUE ) {
+				return write( buffer, at, MINIMUM_LONG );
+			}
+			buffer[at++] = '-';
+			value = -value;
+		}
+		return writeDigits( buffer, at, value, length( value ) );
+	}
+
+	private NumberFormatting() {
+		// Static utility.
+	}
+
+}
@@ -0,0 +1,241 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scans byte arrays eight bytes at a time, treating each word as eight lanes and using the usual
+ * carry tricks to find the first lane of interest. The words are read through a little-endian
+ * {@link ByteBuffer} view of the array, so the lowest set bit of a lane mask marks the first
+ * matching byte.
+ */
+final class WordScanner {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+	private static final long QUOTES = ONES * '"';
+	private static final long BACKSLASHES = ONES * '\\';
+	private static final long SPACES = ONES * ' ';
+	private static final long TABS = ONES * '\t';
+	private static final long CARRIAGE_RETURNS = ONES * '\r';
+	private static final long LINE_FEEDS = ONES * '\n';
+	private static final long CASES = ONES * 0x20;
+
+	static final int QUOTED = 2;
+	static final int ESCAPED = 1;
+	private static final long OPENING_BRACES = ONES * '{';
+	private static final long CLOSING_BRACES = ONES * '}';
+
+	/**
+	 * @return the high bit of each lane whose byte is zero, exactly.
+	 */
+	private static long zeroes( long word ) {
+		return ~( ( word & LOWS ) + LOWS | word | LOWS );
+	}
+
+	/**
+	 * @return the index of the first line feed in the given range, or {@code to} if there is none.
+	 */
+	static int indexOfLineFeed( ByteBuffer view, byte [] buffer, int from, int to ) {
+		int i = from;
+		for( int last = to - 8; i <= last; i += 8 ) {
+			long mask = zeroes( view.getLong( i ) ^ LINE_FEEDS );
+			if( mask != 0 ) {
+				return i + ( Long.numberOfTrailingZeros( mask ) >>> 3 );
+			}
+		}
+		for( ; i < to; i++ ) {
+			if( buffer[i] == '\n' ) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * @return the index of the first quote, backslash or control character in the given range, or
+	 *         {@code to} if there is none.
+	 */
+	static int indexOfSpecial( ByteBuffer view, byte [] buffer, int from, int to ) {
+		int i = from;
+		for( int last = to - 8; i <= last; i += 8 ) {
+			long word = view.getLong( i );
+			long quotes = word ^ QUOTES;
+			long backslashes = word ^ BACKSLASHES;
+			long mask = ( quotes - ONES & ~quotes | backslashes - ONES & ~backslashes | word - SPACES & ~word ) & HIGHS;
+			if( mask != 0 ) {
+				return i + ( Long.numberOfTrailingZeros( mask ) >>> 3 );
+			}
+		}
+		for( ; i < to; i++ ) {
+			byte c = buffer[i];
+			if( c == '"' || c == '\\' || 0 <= c && c < ' ' ) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * @return the index of the first quote, brace or bracket in the given range, or {@code to} if
+	 *         there is none. Brackets differ from braces only in the 0x20 bit, so setting that bit in
+	 *         every lane lets one comparison find both.
+	 */
+	static int indexOfStructural( ByteBuffer view, byte [] buffer, int from, int to ) {
+		int i = from;
+		for( int last = to - 8; i <= last; i += 8 ) {
+			long word = view.getLong( i );
+			long folded = word | CASES;
+			long mask = zeroes( word ^ QUOTES ) | zeroes( folded ^ OPENING_BRACES ) | zeroes( folded ^ CLOSING_BRACES );
+			if( mask != 0 ) {
+				return i + ( Long.numberOfTrailingZeros( mask ) >>> 3 );
+			}
+		}
+		for( ; i < to; i++ ) {
+			switch( buffer[i] ) {
+				case '"':
+				case '{':
+				case '}':
+				case '[':
+				case ']':
+					return i;
+				default:
+					break;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Skips through nested objects and arrays without looking at anything but quotes, backslashes,
+	 * braces and brackets. Within a word free of backslashes, the lanes inside strings are found by
+	 * a prefix parity of its quotes, so brackets there are ignored without visiting each byte. Words
+	 * with backslashes are visited a byte at a time.
+	 * 
+	 * @param state
+	 *            the nesting depth, shifted left by two, with {@link #QUOTED} set within a string and
+	 *            {@link #ESCAPED} set just after a backslash within one.
+	 * @return the index just past the bracket that closes the outermost level, or, if the range ends
+	 *         first, the complement of the state at its end.
+	 */
+	static int skipNested( ByteBuffer view, byte [] buffer, int from, int to, int state ) {
+		int nesting = state >>> 2;
+		boolean quoted = ( state & QUOTED ) != 0;
+		boolean escaped = ( state & ESCAPED ) != 0;
+		int i = from;
+		while( i < to ) {
+			long word = i <= to - 8 && !escaped ? view.getLong( i ) : BACKSLASHES;
+			if( zeroes( word ^ BACKSLASHES ) == 0 ) {
+				long quotes = zeroes( word ^ QUOTES );
+				long inside = quotes ^ quotes << 8;
+				inside ^= inside << 16;
+				inside ^= inside << 32;
+				if( quoted ) {
+					inside = ~inside & HIGHS;
+				}
+				quoted ^= ( Long.bitCount( quotes ) & 1 ) != 0;
+				long folded = word | CASES;
+				long opening = zeroes( folded ^ OPENING_BRACES ) & ~inside;
+				long closing = zeroes( folded ^ CLOSING_BRACES ) & ~inside;
+				if( closing == 0 ) {
+					nesting += Long.bitCount( opening );
+				} else {
+					for( long brackets = opening | closing; brackets != 0; brackets &= brackets - 1 ) {
+						long lane = brackets & -brackets;
+						nesting += ( opening & lane ) != 0 ? 1 : -1;
+						if( nesting == 0 ) {
+							return i + ( Long.numberOfTrailingZeros( lane ) >>> 3 ) + 1;
+						}
+					}
+				}
+				i += 8;
+				continue;
+			}
+			for( int end = Math.min( i + 8, to ); i < end; i++ ) {
+				byte c = buffer[i];
+				if( escaped ) {
+					escaped = false;
+				} else if( quoted ) {
+					if( c == '\\' ) {
+						escaped = true;
+					} else if( c == '"' ) {
+						quoted = false;
+					}
+				} else {
+					switch( c ) {
+						case '"':
+							quoted = true;
+							break;
+						case '{':
+						case '[':
+							nesting++;
+							break;
+						case '}':
+						case ']':
+							if( --nesting == 0 ) {
+								return i + 1;
+							}
+							break;
+						default:
+							break;
+					}
+				}
+			}
+		}
+		return ~( nesting << 2 | ( quoted ? QUOTED : 0 ) | ( escaped ? ESCAPED : 0 ) );
+	}
+
+	/**
+	 * @return the index of the first byte in the given range that is not JSON whitespace, or
+	 *         {@code to} if there is none.
+	 */
+	static int skipWhitespace( ByteBuffer view, byte [] buffer, int from, int to ) {
+		int i = from;
+		for( int last = to - 8; i <= last; i += 8 ) {
+			long word = view.getLong( i );
+			long mask = ~( zeroes( word ^ SPACES ) | zeroes( word ^ TABS ) | zeroes( word ^ CARRIAGE_RETURNS ) | zeroes( word ^ LINE_FEEDS ) ) & HIGHS;
+			if( mask != 0 ) {
+				return i + ( Long.numberOfTrailingZeros( mask ) >>> 3 );
+			}
+		}
+		for( ; i < to; i++ ) {
+			switch( buffer[i] ) {
+				case ' ':
+				case '\t':
+				case '\r':
+				case '\n':
+					break;
+				default:
+					return i;
+			}
+		}
+		return to;
+	}
+
+	private WordScanner() {
+		// Static utility.
+	}
+
+}
@@ -0,0 +1,787 @@
+package org.twuni.twoson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Rough throughput measurements for the parser and generator. These are not unit tests; run the
+ * main method directly, optionally naming the scenarios to run.
+ */
+public class JSONBenchmark {
+
+	private static interface Task {
+
+		public void run() throws Exception;
+
+	}
+
+	private static final BaseJSONEventListener IGNORE = new BaseJSONEventListener();
+
+	/**
+	 * Parses a document of about 3 MB from a heap buffer, from a direct buffer, and from a direct buffer
+	 * copied to a heap array first, as callers had to before.
+	 */
+	private static void buffers() throws Exception {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 30000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"name\":\"user" ).append( i ).append( "\",\"tags\":[\"a\",\"b\"],\"active\":true}" );
+		}
+		final byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+		final ByteBuffer heap = ByteBuffer.wrap( in );
+		final ByteBuffer direct = ByteBuffer.allocateDirect( in.length );
+		direct.put( in ).flip();
+		measure( "buffers/heap", in.length, new Task() {
+
+			@Override
+			public void run() {
+				heap.clear();
+				JSONParser.parse( heap, IGNORE );
+			}
+
+		} );
+		measure( "buffers/direct", in.length, new Task() {
+
+			@Override
+			public void run() {
+				direct.clear();
+				JSONParser.parse( direct, IGNORE );
+			}
+
+		} );
+		measure( "buffers/direct-copied", in.length, new Task() {
+
+			@Override
+			public void run() {
+				direct.clear();
+				byte [] copy = new byte [direct.remaining()];
+				direct.get( copy );
+				JSONParser.parse( copy, IGNORE );
+			}
+
+		} );
+	}
+
+	/**
+	 * Arrays of objects growing from a thousand to a million elements, built into JSONValue trees. The
+	 * time per element should stay roughly flat.
+	 */
+	private static void builder() throws Exception {
+		for( int n = 1000; n <= 1000000; n *= 10 ) {
+			StringBuilder json = new StringBuilder( "[" );
+			for( int i = 0; i < n; i++ ) {
+				json.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"ok\":true}" );
+			}
+			final byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+			measure( "builder/" + n, in.length, new Task() {
+
+				@Override
+				public void run() {
+					JSONParser.parse( in );
+				}
+
+			} );
+		}
+	}
+
+	/**
+	 * Parses an array of about 8 MB on the calling thread, then split into pieces on a pool with a
+	 * thread for each processor.
+	 */
+	private static void elements() throws Exception {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; json.length() < 8 * 1024 * 1024; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"name\":\"user-" ).append( i ).append( "\",\"items\":[{\"sku\":\"a\"},{\"sku\":\"b\"}],\"score\":" ).append( i * 0.37 ).append( "}" );
+		}
+		final byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+		final ExecutorService executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		try {
+			measure( "elements/sequential", in.length, new Task() {
+
+				@Override
+				public void run() {
+					JSONParser.parse( in );
+				}
+
+			} );
+			measure( "elements/parallel-" + Runtime.getRuntime().availableProcessors(), in.length, new Task() {
+
+				@Override
+				public void run() throws Exception {
+					JSONElements.parse( in, executor );
+				}
+
+			} );
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static boolean enabled( String [] args, String scenario ) {
+		if( args.length == 0 ) {
+			return true;
+		}
+		for( int i = 0; i < args.length; i++ ) {
+			if( args[i].equals( scenario ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes 20,000 small records to a synchronized stream, as a response body would be written.
+	 */
+	private static void generator() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream( 4 * 1024 * 1024 );
+		final byte [] name = JSONUtils.toByteArray( "user \"quoted\" name" );
+		out.reset();
+		generate( out, name );
+		final long bytes = out.size();
+		measure( "generator/records", bytes, new Task() {
+
+			@Override
+			public void run() throws Exception {
+				out.reset();
+				generate( out, name );
+			}
+
+		} );
+		final JSONToken [] keys = { JSONGenerator.token( "id" ), JSONGenerator.token( "name" ), JSONGenerator.token( "active" ) };
+		measure( "generator/records-tokens", bytes, new Task() {
+
+			@Override
+			public void run() throws Exception {
+				out.reset();
+				generate( out, name, keys );
+			}
+
+		} );
+		final JSONValue tree = JSONParser.parse( out.toByteArray() );
+		measure( "generator/tree-toString", bytes, new Task() {
+
+			@Override
+			public void run() throws Exception {
+				tree.toString();
+			}
+
+		} );
+		final ByteBuffer direct = ByteBuffer.allocateDirect( 4 * 1024 * 1024 );
+		measure( "generator/records-copied-to-direct", bytes, new Task() {
+
+			@Override
+			public void run() throws Exception {
+				out.reset();
+				generate( out, name );
+				direct.clear();
+				direct.put( out.toByteArray() );
+			}
+
+		} );
+		measure( "generator/records-into-direct", bytes, new Task() {
+
+			@Override
+			public void run() throws Exception {
+				direct.clear();
+				generate( new JSONGenerator( direct ), name );
+			}
+
+		} );
+		final double [] samples = new double [20000];
+		Random random = new Random( 21 );
+		for( int i = 0; i < samples.length; i++ ) {
+			samples[i] = random.nextGaussian() * 1000;
+		}
+		out.reset();
+		generateNumbers( out, samples );
+		measure( "generator/numbers", out.size(), new Task() {
+
+			@Override
+			public void run() throws Exception {
+				out.reset();
+				generateNumbers( out, samples );
+			}
+
+		} );
+		StringBuilder text = new StringBuilder();
+		for( int i = 0; i < 40; i++ ) {
+			text.append( i % 10 == 9 ? "a \"quoted\" line\n" : "plain words and more. " );
+		}
+		final byte [] paragraph = JSONUtils.toByteArray( text.toString() );
+		out.reset();
+		generateStrings( out, paragraph );
+		measure( "generator/strings", out.size(), new Task() {
+
+			@Override
+			public void run() throws Exception {
+				out.reset();
+				generateStrings( out, paragraph );
+			}
+
+		} );
+	}
+
+	private static void generate( OutputStream out, byte [] name ) throws IOException {
+		generate( new JSONGenerator( out ), name );
+	}
+
+	private static void generate( JSONGenerator generator, byte [] name ) throws IOException {
+		generator.openArray();
+		for( int i = 0; i < 20000; i++ ) {
+			if( i > 0 ) {
+				generator.next();
+			}
+			generator.openObject();
+			generator.writeKey( "id" );
+			generator.write( i );
+			generator.next();
+			generator.writeKey( "name" );
+			generator.writeString( name );
+			generator.next();
+			generator.writeKey( "active" );
+			generator.write( true );
+			generator.closeObject();
+		}
+		generator.closeArray();
+		generator.close();
+	}
+
+	private static void generate( OutputStream out, byte [] name, JSONToken [] keys ) throws IOException {
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.openArray();
+		for( int i = 0; i < 20000; i++ ) {
+			if( i > 0 ) {
+				generator.next();
+			}
+			generator.openObject();
+			generator.writeKey( keys[0] );
+			generator.write( i );
+			generator.next();
+			generator.writeKey( keys[1] );
+			generator.writeString( name );
+			generator.next();
+			generator.writeKey( keys[2] );
+			generator.write( true );
+			generator.closeObject();
+		}
+		generator.closeArray();
+		generator.close();
+	}
+
+	private static void generateNumbers( OutputStream out, double [] samples ) throws IOException {
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.openArray();
+		for( int i = 0; i < samples.length; i++ ) {
+			if( i > 0 ) {
+				generator.next();
+			}
+			generator.openArray();
+			generator.write( 1600000000000L + i );
+			generator.next();
+			generator.write( samples[i] );
+			generator.next();
+			generator.write( (float) samples[i] );
+			generator.next();
+			generator.write( samples[i], 2 );
+			generator.closeArray();
+		}
+		generator.closeArray();
+		generator.close();
+	}
+
+	private static void generateStrings( OutputStream out, byte [] paragraph ) throws IOException {
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.openArray();
+		for( int i = 0; i < 5000; i++ ) {
+			if( i > 0 ) {
+				generator.next();
+			}
+			generator.writeString( paragraph );
+		}
+		generator.closeArray();
+		generator.close();
+	}
+
+	/**
+	 * Reads three fields from a payload of about 50 KB, parsed fully and lazily.
+	 */
+	private static void lazy() throws Exception {
+		StringBuilder json = new StringBuilder( "{\"id\":42,\"items\":[" );
+		for( int i = 0; i < 900; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"sku\":\"item-" ).append( i ).append( "\",\"price\":" ).append( i * 1.25 ).append( ",\"tags\":[\"a\",\"b\",\"c\"]}" );
+		}
+		json.append( "],\"status\":\"shipped\",\"total\":1234.5}" );
+		final byte [] in = JSONUtils.toByteArray( json.toString() );
+		measure( "lazy/" + in.length + "/JSONValue", in.length, new Task() {
+
+			@Override
+			public void run() {
+				JSONValue value = JSONParser.parse( in );
+				value.get( "id" );
+				value.get( "status" );
+				value.get( "total" );
+			}
+
+		} );
+		measure( "lazy/" + in.length + "/JSONLazyValue", in.length, new Task() {
+
+			@Override
+			public void run() {
+				JSONLazyValue value = JSONParser.parseLazy( in );
+				value.get( "id" ).intValue();
+				value.get( "status" ).stringValue();
+				value.get( "total" ).doubleValue();
+			}
+
+		} );
+	}
+
+	/**
+	 * Parses about 8 MB of JSON Lines on the calling thread, then on a pool with a thread for each
+	 * processor, delivering records in order and as they come.
+	 */
+	private static void lines() throws Exception {
+		StringBuilder json = new StringBuilder();
+		for( int i = 0; json.length() < 8 * 1024 * 1024; i++ ) {
+			json.append( "{\"id\":" ).append( i ).append( ",\"name\":\"user-" ).append( i ).append( "\",\"score\":" ).append( i * 0.37 ).append( ",\"tags\":[\"a\",\"b\"],\"active\":true}\n" );
+		}
+		final byte [] in = JSONUtils.toByteArray( json.toString() );
+		final JSONRecordListener ignore = new JSONRecordListener() {
+
+			@Override
+			public void onRecord( long position, JSONValue record ) {
+				// Ignore.
+			}
+
+		};
+		final ExecutorService executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		try {
+			measure( "lines/sequential", in.length, new Task() {
+
+				@Override
+				public void run() {
+					JSONLines.parse( in, ignore );
+				}
+
+			} );
+			measure( "lines/parallel-" + Runtime.getRuntime().availableProcessors() + "/ordered", in.length, new Task() {
+
+				@Override
+				public void run() throws Exception {
+					JSONLines.parse( in, executor, true, ignore );
+				}
+
+			} );
+			measure( "lines/parallel-" + Runtime.getRuntime().availableProcessors() + "/unordered", in.length, new Task() {
+
+				@Override
+				public void run() throws Exception {
+					JSONLines.parse( in, executor, false, ignore );
+				}
+
+			} );
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Looks up every key of an object with thousands of properties by string and by precompiled key.
+	 */
+	private static void lookup() throws Exception {
+		StringBuilder json = new StringBuilder( "{" );
+		final String [] names = new String [5000];
+		final JSONKey [] keys = new JSONKey [names.length];
+		for( int i = 0; i < names.length; i++ ) {
+			names[i] = "feature.flag." + i;
+			keys[i] = new JSONKey( names[i] );
+			json.append( i > 0 ? "," : "" ).append( '"' ).append( names[i] ).append( "\":" ).append( i % 2 == 0 );
+		}
+		final JSONValue value = JSONParser.parse( json.append( "}" ).toString() );
+		measure( "lookup/" + names.length + "/String", 0, new Task() {
+
+			@Override
+			public void run() {
+				for( int i = 0; i < names.length; i++ ) {
+					value.get( names[i] );
+				}
+			}
+
+		} );
+		measure( "lookup/" + names.length + "/JSONKey", 0, new Task() {
+
+			@Override
+			public void run() {
+				for( int i = 0; i < keys.length; i++ ) {
+					value.get( keys[i] );
+				}
+			}
+
+		} );
+	}
+
+	public static void main( String [] args ) throws Exception {
+		if( enabled( args, "buffers" ) ) {
+			buffers();
+		}
+		if( enabled( args, "builder" ) ) {
+			builder();
+		}
+		if( enabled( args, "elements" ) ) {
+			elements();
+		}
+		if( enabled( args, "feed" ) ) {
+			feed();
+		}
+		if( enabled( args, "filter" ) ) {
+			filter();
+		}
+		if( enabled( args, "footprint" ) ) {
+			footprint();
+		}
+		if( enabled( args, "generator" ) ) {
+			generator();
+		}
+		if( enabled( args, "lazy" ) ) {
+			lazy();
+		}
+		if( enabled( args, "lines" ) ) {
+			lines();
+		}
+		if( enabled( args, "lookup" ) ) {
+			lookup();
+		}
+		if( enabled( args, "nested" ) ) {
+			nested();
+		}
+		if( enabled( args, "numbers" ) ) {
+			numbers();
+		}
+		if( enabled( args, "reader" ) ) {
+			reader();
+		}
+		if( enabled( args, "strings" ) ) {
+			strings();
+		}
+		if( enabled( args, "symbols" ) ) {
+			symbols();
+		}
+	}
+
+	/**
+	 * Warms the task up for half a second, then runs it until roughly a second has passed and reports
+	 * the mean time per run and, if known, the throughput over the given number of input bytes.
+	 */
+	private static void measure( String name, long bytes, Task task ) throws Exception {
+		for( long warm = System.nanoTime(); System.nanoTime() - warm < 500000000L; ) {
+			task.run();
+		}
+		long runs = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			task.run();
+			runs++;
+			elapsed = System.nanoTime() - start;
+		} while( elapsed < 1000000000L );
+		double nanosPerRun = (double) elapsed / runs;
+		if( bytes > 0 ) {
+			System.out.println( String.format( Locale.US, "%-40s %12.1f ns/op %10.1f MB/s", name, nanosPerRun, bytes * 1000.0 / nanosPerRun ) );
+		} else {
+			System.out.println( String.format( Locale.US, "%-40s %12.1f ns/op", name, nanosPerRun ) );
+		}
+	}
+
+	/**
+	 * Parses a document of about 3 MB whole, then fed to a JSONFeedParser in pieces the size of a
+	 * typical TCP segment.
+	 */
+	private static void feed() throws Exception {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; json.length() < 3 * 1024 * 1024; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"name\":\"user-" ).append( i ).append( "\",\"bio\":\"" ).append( i % 10 == 0 ? new String( new char [2000] ).replace( '\0', 'b' ) : "short" ).append( "\",\"score\":" ).append( i * 0.37 ).append( "}" );
+		}
+		final byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+		measure( "feed/whole", in.length, new Task() {
+
+			@Override
+			public void run() {
+				JSONParser.parse( in, IGNORE );
+			}
+
+		} );
+		final JSONFeedParser parser = new JSONFeedParser( IGNORE );
+		measure( "feed/1460", in.length, new Task() {
+
+			@Override
+			public void run() throws Exception {
+				parser.reset( IGNORE );
+				for( int i = 0; i < in.length; i += 1460 ) {
+					parser.feed( in, i, Math.min( 1460, in.length - i ) );
+				}
+				parser.endOfInput();
+			}
+
+		} );
+	}
+
+	/**
+	 * Reads a large document with no filter, with a filter matching almost nothing, and with one
+	 * matching a field of every record, and compares them with a plain search for a byte that does
+	 * not occur.
+	 */
+	private static void filter() throws Exception {
+		StringBuilder json = new StringBuilder( "{\"user\":{\"id\":1},\"items\":[" );
+		for( int i = 0; i < 20000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"sku\":\"item-" ).append( i ).append( "\",\"description\":\"A fairly long description of item " ).append( i ).append( ", with \\\"quotes\\\" and [brackets]\",\"price\":" ).append( i * 0.25 ).append( ",\"dimensions\":{\"w\":1,\"h\":2,\"d\":3},\"tags\":[\"x\",\"y\"]}" );
+		}
+		final byte [] in = JSONUtils.toByteArray( json.append( "]}" ).toString() );
+		final JSONParser parser = new JSONParser();
+		for( final String [] paths : new String [] [] { {}, { "$.user.id" }, { "$.user.id", "$.items[*].sku" } } ) {
+			final JSONPath filter = paths.length > 0 ? JSONPath.compile( paths ) : null;
+			measure( "filter/" + ( filter != null ? filter.toString() : "none" ), in.length, new Task() {
+
+				@Override
+				public void run() throws Exception {
+					parser.setFilter( filter );
+					parser.reset( in, 0, in.length, IGNORE );
+					parser.read();
+				}
+
+			} );
+		}
+		measure( "filter/memchr", in.length, new Task() {
+
+			@Override
+			public void run() {
+				for( int i = 0; i < in.length; i++ ) {
+					if( in[i] == '~' ) {
+						break;
+					}
+				}
+			}
+
+		} );
+	}
+
+	/**
+	 * Reports the approximate heap occupied by the same documents as JSONValue trees and as tapes.
+	 */
+	private static void footprint() {
+		StringBuilder records = new StringBuilder( "[" );
+		StringBuilder numbers = new StringBuilder( "[" );
+		for( int i = 0; i < 10000; i++ ) {
+			records.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"name\":\"user" ).append( i ).append( "\",\"active\":true,\"score\":" ).append( i * 0.5 ).append( "}" );
+			numbers.append( i > 0 ? "," : "" ).append( i );
+		}
+		for( String json : new String [] { records.append( "]" ).toString(), numbers.append( "]" ).toString() } ) {
+			long tree = footprint( JSONParser.parse( json ) );
+			long tape = JSONParser.parseTape( json ).footprint();
+			System.out.println( String.format( Locale.US, "%-40s source %10d B, tree %10d B, tape %10d B (%.1fx smaller)", "footprint/" + json.length(), json.length(), tree, tape, (double) tree / tape ) );
+		}
+	}
+
+	/**
+	 * @return the approximate heap occupied by the given tree, assuming compressed object pointers.
+	 */
+	private static long footprint( JSONValue value ) {
+		long size = 56;
+		switch( value.type ) {
+			case STRING:
+				size += 16 + ( value.stringValue.length + 7 & ~7 );
+				break;
+			case ARRAY:
+				size += 16 + ( 4L * value.arrayValue.length + 7 & ~7 );
+				for( int i = 0; i < value.arrayValue.length; i++ ) {
+					size += footprint( value.arrayValue[i] );
+				}
+				break;
+			case OBJECT:
+				size += 16 + ( 4L * value.objectValue.length + 7 & ~7 );
+				for( int i = 0; i < value.objectValue.length; i++ ) {
+					size += 24 + 16 + ( value.objectValue[i].key.length + 7 & ~7 ) + footprint( value.objectValue[i].value );
+				}
+				break;
+			default:
+				break;
+		}
+		return size;
+	}
+
+	private static void nested() throws Exception {
+		for( final int depth : new int [] { 16, 256, 4096 } ) {
+			StringBuilder json = new StringBuilder();
+			for( int i = 0; i < depth; i++ ) {
+				json.append( i % 2 == 0 ? "{\"a\":[" : "[" );
+			}
+			for( int i = depth - 1; i >= 0; i-- ) {
+				json.append( i % 2 == 0 ? "]}" : "]" );
+			}
+			final byte [] in = JSONUtils.toByteArray( json.toString() );
+			measure( "nested/" + depth, in.length, new Task() {
+
+				@Override
+				public void run() {
+					JSONParser.parse( in, IGNORE );
+				}
+
+			} );
+		}
+	}
+
+	/**
+	 * Arrays of random doubles and of large integer IDs, parsed by JSONParser and, for comparison, by
+	 * Double.parseDouble over the same tokens.
+	 */
+	private static void numbers() throws Exception {
+		Random random = new Random( 0 );
+		final String [] doubles = new String [1000];
+		final String [] ids = new String [1000];
+		for( int i = 0; i < doubles.length; i++ ) {
+			doubles[i] = Double.toString( random.nextDouble() * Math.pow( 10, random.nextInt( 20 ) - 10 ) );
+			ids[i] = Long.toString( random.nextLong() & Long.MAX_VALUE );
+		}
+		for( final String [] tokens : new String [] [] { doubles, ids } ) {
+			StringBuilder json = new StringBuilder( "[" );
+			for( int i = 0; i < tokens.length; i++ ) {
+				json.append( i > 0 ? "," : "" ).append( tokens[i] );
+			}
+			final byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+			String name = tokens == doubles ? "doubles" : "ids";
+			measure( "numbers/" + name + "/JSONParser", in.length, new Task() {
+
+				@Override
+				public void run() {
+					JSONParser.parse( in, IGNORE );
+				}
+
+			} );
+			measure( "numbers/" + name + "/Double.parseDouble", in.length, new Task() {
+
+				@Override
+				public void run() {
+					for( int i = 0; i < tokens.length; i++ ) {
+						Double.parseDouble( tokens[i] );
+					}
+				}
+
+			} );
+		}
+	}
+
+	/**
+	 * Sums one field of every record in a large array, through a listener and through a reader.
+	 */
+	private static void reader() throws Exception {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 20000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"name\":\"user" ).append( i ).append( "\",\"tags\":[\"a\",\"b\"],\"active\":true}" );
+		}
+		final byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+		final byte [] id = JSONUtils.toByteArray( "id" );
+		measure( "reader/listener", in.length, new Task() {
+
+			@Override
+			public void run() {
+				JSONParser.parse( in, new BaseJSONEventListener() {
+
+					private boolean wanted;
+					private long sum;
+
+					@Override
+					public void onInteger( int value ) {
+						if( wanted ) {
+							sum += value;
+						}
+					}
+
+					@Override
+					public void onObjectKey( byte [] buffer, int offset, int length ) {
+						wanted = length == 2 && buffer[offset] == id[0] && buffer[offset + 1] == id[1];
+					}
+
+				} );
+			}
+
+		} );
+		measure( "reader/JSONReader", in.length, new Task() {
+
+			@Override
+			public void run() throws Exception {
+				JSONReader reader = new JSONReader( in );
+				long sum = 0;
+				for( JSONReader.Token token = reader.nextToken(); token != null; token = reader.nextToken() ) {
+					if( token == JSONReader.Token.OBJECT_KEY && reader.isKey( id ) ) {
+						reader.nextToken();
+						sum += reader.longValue();
+					} else if( token == JSONReader.Token.OBJECT_KEY ) {
+						reader.nextToken();
+						reader.skipChildren();
+					}
+				}
+			}
+
+		} );
+	}
+
+	/**
+	 * Long ASCII strings, such as log messages and URLs, compactly and then pretty-printed.
+	 */
+	private static void strings() throws Exception {
+		StringBuilder compact = new StringBuilder( "[" );
+		StringBuilder pretty = new StringBuilder( "[\n" );
+		for( int i = 0; i < 100; i++ ) {
+			String entry = "{\"message\":\"GET /api/v1/accounts/" + i + "/transactions?from=2013-01-01&to=2013-12-31 completed in 42ms\",\"url\":\"https://example.com/path/to/resource/" + i + "\"}";
+			compact.append( i > 0 ? "," : "" ).append( entry );
+			pretty.append( i > 0 ? ",\n" : "" ).append( "                " ).append( entry.replace( ",", ",\n                    " ) );
+		}
+		compact.append( "]" );
+		pretty.append( "\n]" );
+		for( final byte [] in : new byte [] [] { JSONUtils.toByteArray( compact.toString() ), JSONUtils.toByteArray( pretty.toString() ) } ) {
+			measure( "strings/" + in.length, in.length, new Task() {
+
+				@Override
+				public void run() {
+					JSONParser.parse( in, IGNORE );
+				}
+
+			} );
+		}
+	}
+
+	/**
+	 * An array of records sharing twenty keys, built into JSONValue trees with and without a symbol
+	 * table.
+	 */
+	private static void symbols() throws Exception {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 100000; i++ ) {
+			json.append( i > 0 ? ",{" : "{" );
+			for( int k = 0; k < 20; k++ ) {
+				json.append( k > 0 ? "," : "" ).append( "\"field" ).append( k ).append( "\":" ).append( k );
+			}
+			json.append( "}" );
+		}
+		final byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+		final JSONParser parser = new JSONParser();
+		final JSONSymbolTable table = new JSONSymbolTable();
+		for( final boolean interning : new boolean [] { false, true } ) {
+			measure( "symbols/" + ( interning ? "table" : "none" ), in.length, new Task() {
+
+				@Override
+				public void run() throws Exception {
+					parser.setSymbolTable( interning ? table : null );
+					parser.reset( in, 0, in.length, new JSONValueBuilder() );
+					parser.read();
+				}
+
+			} );
+		}
+	}
+
+}
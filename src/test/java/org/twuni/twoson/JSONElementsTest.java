@@ -0,0 +1,148 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class JSONElementsTest extends TestFixture {
+
+	private static final int [] CHUNK_SIZES = { 1, 7, 100, 4096, JSONElements.DEFAULT_CHUNK_SIZE };
+
+	private static class Collector implements JSONRecordListener {
+
+		final List<String> records = new ArrayList<String>();
+
+		@Override
+		public void onRecord( long position, JSONValue record ) {
+			records.add( position + "=" + record );
+		}
+
+	}
+
+	/**
+	 * Builds an array of objects whose strings and nested arrays are full of commas that look like
+	 * they separate elements.
+	 */
+	private static String elements( int count ) {
+		StringBuilder json = new StringBuilder( " [\n" );
+		for( int i = 0; i < count; i++ ) {
+			json.append( i > 0 ? " ,\n" : "" ).append( "{\"id\":" ).append( i ).append( ",\"note\":\"}, {\\\"id\\\":" ).append( i ).append( " \\\\\",\"items\":[{\"id\":1},{\"id\":[2,{}]}],\"ratio\":" ).append( i / 7.0 ).append( "}" );
+		}
+		return json.append( "\n] " ).toString();
+	}
+
+	private static void assertParallelMatches( String json, ExecutorService executor ) throws IOException {
+		JSONValue expected = JSONParser.parse( json );
+		for( int chunkSize : CHUNK_SIZES ) {
+			Collector collector = new Collector();
+			JSONElements.parse( ByteBuffer.wrap( JSONUtils.toByteArray( json ) ), chunkSize, executor, collector );
+			assertEquals( expected.length(), collector.records.size() );
+			for( int i = 0; i < expected.length(); i++ ) {
+				String record = collector.records.get( i );
+				assertEquals( expected.get( i ).toString(), record.substring( record.indexOf( '=' ) + 1 ) );
+			}
+		}
+	}
+
+	@Test
+	public void parse_inParallel_shouldMatchSequentialParse() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			assertParallelMatches( elements( 500 ), executor );
+			assertParallelMatches( "[1,2.5,\"a,b\",[],{},null,true]", executor );
+			assertParallelMatches( "[]", executor );
+			assertParallelMatches( "[[1,[2]],[3],{\"a\":[{\"b\":\"],[\"}]}]", executor );
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void parse_shouldReportEachElementWithItsPosition() throws IOException {
+		Collector collector = new Collector();
+		JSONElements.parse( JSONUtils.toByteArray( " [ {\"a\":1} ,\"x\",\n[2]]" ), null, collector );
+		assertEquals( 3, collector.records.size() );
+		assertEquals( "3=" + JSONParser.parse( "{\"a\":1}" ), collector.records.get( 0 ) );
+		assertEquals( "12=\"x\"", collector.records.get( 1 ) );
+		assertEquals( "17=[2]", collector.records.get( 2 ) );
+	}
+
+	@Test
+	public void parse_fromDirectBuffer_shouldStitchArray() throws IOException {
+		String json = elements( 300 );
+		byte [] bytes = JSONUtils.toByteArray( json );
+		ByteBuffer in = ByteBuffer.allocateDirect( bytes.length );
+		in.put( bytes ).flip();
+		ExecutorService executor = Executors.newFixedThreadPool( 3 );
+		try {
+			assertEquals( JSONParser.parse( json ).toString(), JSONElements.parse( in, executor ).toString() );
+			assertFalse( in.hasRemaining() );
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void parse_withMalformedElement_shouldReportItsPosition() throws IOException {
+		String json = elements( 200 );
+		int broken = json.length() / 2;
+		broken = json.indexOf( "\"ratio\":", broken ) + 8;
+		json = json.substring( 0, broken ) + "]" + json.substring( broken );
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			for( int chunkSize : CHUNK_SIZES ) {
+				try {
+					JSONElements.parse( ByteBuffer.wrap( JSONUtils.toByteArray( json ) ), chunkSize, executor, new Collector() );
+					fail();
+				} catch( IllegalFormatException exception ) {
+					assertEquals( broken, exception.getPosition() );
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void parse_withoutArray_shouldFail() throws IOException {
+		JSONElements.parse( JSONUtils.toByteArray( "{\"a\":[1,2]}" ), null );
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void parse_withUnclosedArray_shouldFail() throws IOException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			JSONElements.parse( JSONUtils.toByteArray( "[{\"a\":1},{\"a\":2}" ), executor );
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package org.twuni.twoson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JSONFeedParserTest extends TestFixture {
+
+	private static final String DOCUMENT = "{\"id\":9007199254740993,\"name\":\"fe\\\"e\\\\d\\u00e9\",\"ratio\":-0.25e-2,\"ok\":true,\"off\":false,\"none\":null,\"big\":123456789012345678901234567890,\"tags\":[\"a\",[1,{\"x\":-1}],{}],\"count\":42} ";
+
+	private static class Recorder extends BaseJSONEventListener {
+
+		final List<String> events = new ArrayList<String>();
+
+		@Override
+		public void onBeginArray() {
+			events.add( "BEGIN_ARRAY" );
+		}
+
+		@Override
+		public void onBeginObject() {
+			events.add( "BEGIN_OBJECT" );
+		}
+
+		@Override
+		public void onBoolean( boolean value ) {
+			events.add( "BOOLEAN " + value );
+		}
+
+		@Override
+		public void onDouble( double value ) {
+			events.add( "DOUBLE " + value );
+		}
+
+		@Override
+		public void onEndArray() {
+			events.add( "END_ARRAY" );
+		}
+
+		@Override
+		public void onEndObject() {
+			events.add( "END_OBJECT" );
+		}
+
+		@Override
+		public void onInteger( int value ) {
+			events.add( "INTEGER " + value );
+		}
+
+		@Override
+		public void onLong( long value ) {
+			events.add( "LONG " + value );
+		}
+
+		@Override
+		public void onNull() {
+			events.add( "NULL" );
+		}
+
+		@Override
+		public void onNumber( byte [] buffer, int offset, int length ) {
+			events.add( "NUMBER " + new String( buffer, offset, length ) );
+		}
+
+		@Override
+		public void onObjectKey( byte [] buffer, int offset, int length ) {
+			events.add( "OBJECT_KEY " + new String( buffer, offset, length ) );
+		}
+
+		@Override
+		public void onString( byte [] buffer, int offset, int length ) {
+			events.add( "STRING " + new String( buffer, offset, length ) );
+		}
+
+	}
+
+	private static List<String> events( String json ) {
+		Recorder recorder = new Recorder();
+		JSONParser.parse( json, recorder );
+		return recorder.events;
+	}
+
+	@Test
+	public void feed_splitAnywhere_shouldMatchParse() throws IOException {
+		byte [] json = JSONUtils.toByteArray( DOCUMENT );
+		List<String> expected = events( DOCUMENT );
+		Recorder recorder = new Recorder();
+		JSONFeedParser parser = new JSONFeedParser( recorder );
+		for( int split = 0; split <= json.length; split++ ) {
+			recorder.events.clear();
+			parser.reset( recorder );
+			parser.feed( json, 0, split );
+			parser.feed( json, split, json.length - split );
+			parser.endOfInput();
+			assertEquals( expected, recorder.events );
+		}
+	}
+
+	@Test
+	public void feed_oneByteAtATime_shouldMatchParse() throws IOException {
+		String json = "[" + DOCUMENT + ",\"" + new String( new char [5000] ).replace( '\0', 'x' ) + "\\\"\"," + DOCUMENT + "]";
+		byte [] bytes = JSONUtils.toByteArray( json );
+		Recorder recorder = new Recorder();
+		JSONFeedParser parser = new JSONFeedParser( recorder );
+		for( int i = 0; i < bytes.length; i++ ) {
+			parser.feed( bytes, i, 1 );
+		}
+		parser.endOfInput();
+		assertEquals( events( json ), recorder.events );
+	}
+
+	@Test
+	public void feed_shouldSendEventsAsSoonAsTokensComplete() throws IOException {
+		Recorder recorder = new Recorder();
+		JSONFeedParser parser = new JSONFeedParser( recorder );
+		parser.feed( JSONUtils.toByteArray( "[12,\"ab" ), 0, 7 );
+		assertEquals( 2, recorder.events.size() );
+		assertEquals( "INTEGER 12", recorder.events.get( 1 ) );
+		assertEquals( 3, parser.getPosition() );
+		parser.feed( JSONUtils.toByteArray( "c\",3" ), 0, 4 );
+		assertEquals( "STRING abc", recorder.events.get( 2 ) );
+		assertEquals( 3, recorder.events.size() );
+		parser.feed( JSONUtils.toByteArray( "4]" ), 0, 2 );
+		assertEquals( "INTEGER 34", recorder.events.get( 3 ) );
+		assertEquals( "END_ARRAY", recorder.events.get( 4 ) );
+		parser.endOfInput();
+	}
+
+	@Test
+	public void feed_withMalformedInput_shouldReportPositionInDocument() throws IOException {
+		JSONFeedParser parser = new JSONFeedParser( new Recorder() );
+		parser.feed( JSONUtils.toByteArray( "[1," ), 0, 3 );
+		try {
+			parser.feed( JSONUtils.toByteArray( "2]]" ), 0, 3 );
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertEquals( 5, exception.getPosition() );
+		}
+	}
+
+	@Test
+	public void endOfInput_withinArray_shouldFail() throws IOException {
+		JSONFeedParser parser = new JSONFeedParser( new Recorder() );
+		parser.feed( JSONUtils.toByteArray( "[1,2" ), 0, 4 );
+		try {
+			parser.endOfInput();
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertEquals( 4, exception.getPosition() );
+		}
+	}
+
+	@Test
+	public void endOfInput_withinObject_shouldFail() throws IOException {
+		for( String json : new String [] { "{\"a\":1", "{\"a\":", "{" } ) {
+			JSONFeedParser parser = new JSONFeedParser( new Recorder() );
+			byte [] piece = JSONUtils.toByteArray( json );
+			parser.feed( piece, 0, piece.length );
+			try {
+				parser.endOfInput();
+				fail( json );
+			} catch( IllegalFormatException exception ) {
+				assertEquals( piece.length, exception.getPosition() );
+			}
+		}
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void endOfInput_withinString_shouldFail() throws IOException {
+		JSONFeedParser parser = new JSONFeedParser( new Recorder() );
+		parser.feed( JSONUtils.toByteArray( "[\"abc" ), 0, 5 );
+		parser.endOfInput();
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void endOfInput_withoutValue_shouldFail() throws IOException {
+		JSONFeedParser parser = new JSONFeedParser( new Recorder() );
+		parser.feed( JSONUtils.toByteArray( " \n" ), 0, 2 );
+		parser.endOfInput();
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void feed_afterEndOfInput_shouldFail() throws IOException {
+		JSONFeedParser parser = new JSONFeedParser( new Recorder() );
+		parser.feed( JSONUtils.toByteArray( "1" ), 0, 1 );
+		parser.endOfInput();
+		parser.feed( new byte [1], 0, 1 );
+	}
+
+}
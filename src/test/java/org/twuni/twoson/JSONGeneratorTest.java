@@ -24,12 +24,201 @@ package org.twuni.twoson;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 public class JSONGeneratorTest {
 
+	/**
+	 * Takes at most a few hundred bytes per write, and counts the gathering writes made to it.
+	 */
+	private static class TricklingChannel implements GatheringByteChannel {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int gatheringWrites;
+		boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return !closed;
+		}
+
+		@Override
+		public int write( ByteBuffer source ) {
+			int n = Math.min( source.remaining(), 300 );
+			for( int i = 0; i < n; i++ ) {
+				bytes.write( source.get() );
+			}
+			return n;
+		}
+
+		@Override
+		public long write( ByteBuffer [] sources ) {
+			return write( sources, 0, sources.length );
+		}
+
+		@Override
+		public long write( ByteBuffer [] sources, int offset, int length ) {
+			gatheringWrites++;
+			for( int i = offset; i < offset + length; i++ ) {
+				if( sources[i].hasRemaining() ) {
+					return write( sources[i] );
+				}
+			}
+			return 0;
+		}
+
+	}
+
+	private static void generateRecords( JSONGenerator generator, int count ) throws IOException {
+		generator.openArray();
+		for( int i = 0; i < count; i++ ) {
+			if( i > 0 ) {
+				generator.next();
+			}
+			generator.openObject();
+			generator.writeKey( "id" );
+			generator.write( i );
+			generator.next();
+			generator.writeKey( "name" );
+			generator.writeString( "record number " + i );
+			generator.closeObject();
+		}
+		generator.closeArray();
+	}
+
+	private static String format( double value ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.write( value );
+		generator.close();
+		return out.toString();
+	}
+
+	private static String format( double value, int fractionDigits ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.write( value, fractionDigits );
+		generator.close();
+		return out.toString();
+	}
+
+	private static String format( float value ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.write( value );
+		generator.close();
+		return out.toString();
+	}
+
+	private static String format( long value ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.write( value );
+		generator.close();
+		return out.toString();
+	}
+
+	/**
+	 * @return the number of significant digits in the given formatted number.
+	 */
+	private static int significantDigits( String number ) {
+		int exponent = number.indexOf( 'E' );
+		String digits = exponent < 0 ? number : number.substring( 0, exponent );
+		return digits.replace( "-", "" ).replace( ".", "" ).replaceAll( "^0+", "" ).replaceAll( "0+$", "" ).length();
+	}
+
+	/**
+	 * Counts the calls made to write to it, and whether it has been closed.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int writes;
+		boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public void write( byte [] b, int off, int len ) {
+			writes++;
+			bytes.write( b, off, len );
+		}
+
+		@Override
+		public void write( int b ) {
+			writes++;
+			bytes.write( b );
+		}
+
+	}
+
+	@Test
+	public void testBufferedWrites() throws IOException {
+
+		CountingOutputStream out = new CountingOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+
+		generator.openArray();
+		for( int i = 0; i < 100; i++ ) {
+			if( i > 0 ) {
+				generator.next();
+			}
+			generator.openObject();
+			generator.writeKey( "id" );
+			generator.write( i );
+			generator.closeObject();
+		}
+		generator.closeArray();
+		Assert.assertEquals( 0, out.writes );
+
+		generator.close();
+		Assert.assertEquals( 1, out.writes );
+		Assert.assertTrue( out.closed );
+		Assert.assertEquals( 100, JSONParser.parse( out.bytes.toByteArray() ).length() );
+
+		generator.close();
+		Assert.assertEquals( 1, out.writes );
+
+	}
+
+	@Test
+	public void testLongStrings() throws IOException {
+
+		StringBuilder value = new StringBuilder();
+		for( int i = 0; i < 5000; i++ ) {
+			value.append( i % 100 == 0 ? "\\\"" : "abc" );
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.openArray();
+		generator.writeString( value.toString() );
+		generator.next();
+		generator.writeString( "after" );
+		generator.closeArray();
+		generator.close();
+
+		JSONValue array = JSONParser.parse( out.toByteArray() );
+		Assert.assertEquals( value.toString(), new String( array.get( 0 ).stringValue, "UTF-8" ) );
+		Assert.assertEquals( 2, array.length() );
+
+	}
+
 	@Test
 	public void testEscapeSequences() throws IOException {
 
@@ -41,7 +230,8 @@ public class JSONGeneratorTest {
 		generator.writeString( "\"quoted\" \\\"string\\\"\nwith\nline\nbreaks!" );
 		generator.closeObject();
 
-		String expected = "{\"a\":\"\\\"quoted\\\" \\\\\\\"string\\\\\\\"\nwith\nline\nbreaks!\"}";
+		String expected = "{\"a\":\"\\\"quoted\\\" \\\\\\\"string\\\\\\\"\\nwith\\nline\\nbreaks!\"}";
+		generator.flush();
 		String actual = out.toString();
 		System.out.println( actual );
 		Assert.assertEquals( expected, actual );
@@ -88,6 +278,7 @@ public class JSONGeneratorTest {
 		generator.closeObject();
 
 		String expected = "{\"shouldBeTrue\":true,\"shouldBeFalse\":false,\"shouldBeNull\":null,\"shouldBe123\":123,\"shouldBe123.456\":123.456,\"shouldBeAnArray\":[\"this is a string\",192837465,null]}";
+		generator.flush();
 		String actual = out.toString();
 
 		Assert.assertEquals( expected, actual );
@@ -112,9 +303,275 @@ public class JSONGeneratorTest {
 		generator.closeObject();
 
 		String expected = "{\n    \"open_object\": {\n        \"number\": 12345,\n        \"letters\": \"This is a good string.\"\n    }\n}";
+		generator.flush();
 		String actual = out.toString();
 		Assert.assertEquals( expected, actual );
 
 	}
 
+	@Test
+	public void testDoublesReadBack() throws IOException {
+
+		Assert.assertEquals( "0.0", format( 0.0 ) );
+		Assert.assertEquals( "-0.0", format( -0.0 ) );
+		Assert.assertEquals( "1.0", format( 1.0 ) );
+		Assert.assertEquals( "123.456", format( 123.456 ) );
+		Assert.assertEquals( "0.001", format( 0.001 ) );
+		Assert.assertEquals( "9.99E-4", format( 0.000999 ) );
+		Assert.assertEquals( "9999999.0", format( 9999999.0 ) );
+		Assert.assertEquals( "1.0E7", format( 1e7 ) );
+		Assert.assertEquals( "1.0E23", format( 1e23 ) );
+		Assert.assertEquals( "4.9E-324", format( Double.MIN_VALUE ) );
+		Assert.assertEquals( "1.7976931348623157E308", format( Double.MAX_VALUE ) );
+		Assert.assertEquals( "2.2250738585072014E-308", format( Double.MIN_NORMAL ) );
+		Assert.assertEquals( "NaN", format( Double.NaN ) );
+		Assert.assertEquals( "-Infinity", format( Double.NEGATIVE_INFINITY ) );
+
+		Random random = new Random( 21 );
+		for( int i = 0; i < 100000; i++ ) {
+			double value = i % 2 == 0 ? Double.longBitsToDouble( random.nextLong() ) : random.nextDouble() * Math.pow( 10, random.nextInt( 40 ) - 20 );
+			if( Double.isNaN( value ) || Double.isInfinite( value ) ) {
+				continue;
+			}
+			String written = format( value );
+			Assert.assertEquals( written, Double.doubleToLongBits( value ), Double.doubleToLongBits( Double.parseDouble( written ) ) );
+			Assert.assertTrue( written, significantDigits( written ) <= significantDigits( Double.toString( value ) ) );
+		}
+
+	}
+
+	@Test
+	public void testFixedPrecision() throws IOException {
+
+		Assert.assertEquals( "3.14", format( Math.PI, 2 ) );
+		Assert.assertEquals( "-3.142", format( -Math.PI, 3 ) );
+		Assert.assertEquals( "13", format( 12.5, 0 ) );
+		Assert.assertEquals( "0", format( 0.49999999999999994, 0 ) );
+		Assert.assertEquals( "12.50", format( 12.5, 2 ) );
+		Assert.assertEquals( "0.05", format( 0.05, 2 ) );
+		Assert.assertEquals( "100.00", format( 99.999, 2 ) );
+		Assert.assertEquals( "0.00", format( -0.001, 2 ) );
+		Assert.assertEquals( "1.0E20", format( 1e20, 2 ) );
+		Assert.assertEquals( "NaN", format( Double.NaN, 2 ) );
+
+		Random random = new Random( 21 );
+		for( int i = 0; i < 10000; i++ ) {
+			double value = ( random.nextDouble() - 0.5 ) * Math.pow( 10, random.nextInt( 10 ) );
+			int fractionDigits = random.nextInt( 7 );
+			String written = format( value, fractionDigits );
+			Assert.assertEquals( written, fractionDigits, written.indexOf( '.' ) < 0 ? 0 : written.length() - written.indexOf( '.' ) - 1 );
+			Assert.assertEquals( written, value, Double.parseDouble( written ), 0.5 / Math.pow( 10, fractionDigits ) + Math.ulp( value ) );
+		}
+
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testFixedPrecisionOutOfRange() throws IOException {
+		format( 1.0, 18 );
+	}
+
+	@Test
+	public void testFloatsReadBack() throws IOException {
+
+		Assert.assertEquals( "0.1", format( 0.1f ) );
+		Assert.assertEquals( "1.4E-45", format( Float.MIN_VALUE ) );
+		Assert.assertEquals( "3.4028235E38", format( Float.MAX_VALUE ) );
+		Assert.assertEquals( "1.6777216E7", format( 16777216f ) );
+
+		Random random = new Random( 21 );
+		for( int i = 0; i < 100000; i++ ) {
+			float value = i % 2 == 0 ? Float.intBitsToFloat( random.nextInt() ) : (float) ( random.nextFloat() * Math.pow( 10, random.nextInt( 20 ) - 10 ) );
+			if( Float.isNaN( value ) || Float.isInfinite( value ) ) {
+				continue;
+			}
+			String written = format( value );
+			Assert.assertEquals( written, Float.floatToIntBits( value ), Float.floatToIntBits( Float.parseFloat( written ) ) );
+			Assert.assertTrue( written, significantDigits( written ) <= significantDigits( Float.toString( value ) ) );
+		}
+
+	}
+
+	@Test
+	public void testIntegers() throws IOException {
+
+		long [] values = { 0, 7, -7, 10, 99, 100, -100, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+		for( int i = 0; i < values.length; i++ ) {
+			Assert.assertEquals( Long.toString( values[i] ), format( values[i] ) );
+		}
+
+		Random random = new Random( 21 );
+		for( int i = 0; i < 10000; i++ ) {
+			long value = random.nextLong() >> random.nextInt( 64 );
+			Assert.assertEquals( Long.toString( value ), format( value ) );
+		}
+
+	}
+
+	@Test
+	public void testAsciiOnly() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.setAsciiOnly( true );
+		generator.writeString( "caf\u00e9 \u20ac \ud83d\ude00 \"ok\"" );
+		generator.next();
+		generator.writeString( new byte [] { 'a', (byte) 0xE2, (byte) 0x82, 'b', (byte) 0x80 } );
+		generator.close();
+
+		Assert.assertEquals( "\"caf\\u00e9 \\u20ac \\ud83d\\ude00 \\\"ok\\\"\",\"a\\ufffd\\ufffdb\\ufffd\"", out.toString( "US-ASCII" ) );
+
+	}
+
+	@Test
+	public void testControlCharacters() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.writeString( "\b\f\n\r\t\u0000\u001f\u007f \u00e9/" );
+		generator.next();
+		generator.writeString( "a run long enough to be scanned\u0001a word at a time" );
+		generator.close();
+
+		Assert.assertEquals( "\"\\b\\f\\n\\r\\t\\u0000\\u001f\u007f \u00e9/\",\"a run long enough to be scanned\\u0001a word at a time\"", out.toString( "UTF-8" ) );
+
+	}
+
+	@Test
+	public void testSlices() throws IOException {
+
+		byte [] value = JSONUtils.toByteArray( "skip\"this\"skip" );
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.writeString( value, 4, 6 );
+		generator.close();
+
+		Assert.assertEquals( "\"\\\"this\\\"\"", out.toString() );
+
+	}
+
+	@Test
+	public void testByteBufferTarget() throws IOException {
+
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		ByteBuffer target = ByteBuffer.allocateDirect( 100 );
+		JSONGenerator generator = new JSONGenerator( target, new JSONOverflowListener() {
+
+			@Override
+			public ByteBuffer onOverflow( ByteBuffer buffer ) {
+				buffer.flip();
+				while( buffer.hasRemaining() ) {
+					sent.write( buffer.get() );
+				}
+				buffer.clear();
+				return buffer;
+			}
+
+		} );
+		generateRecords( generator, 1000 );
+		generator.close();
+		target.flip();
+		while( target.hasRemaining() ) {
+			sent.write( target.get() );
+		}
+
+		JSONValue records = JSONParser.parse( sent.toByteArray() );
+		Assert.assertEquals( 1000, records.length() );
+		Assert.assertEquals( "record number 999", new String( records.get( 999 ).get( "name" ).stringValue, "UTF-8" ) );
+
+	}
+
+	@Test( expected = BufferOverflowException.class )
+	public void testByteBufferTargetOverflow() throws IOException {
+		JSONGenerator generator = new JSONGenerator( ByteBuffer.allocate( 8 ) );
+		generator.writeString( "longer than eight bytes" );
+		generator.flush();
+	}
+
+	@Test
+	public void testGatheringChannel() throws IOException {
+
+		TricklingChannel channel = new TricklingChannel();
+		JSONGenerator generator = new JSONGenerator( channel );
+		generateRecords( generator, 50000 );
+		generator.flush();
+		Assert.assertTrue( channel.bytes.size() > 1024 * 1024 );
+		generator.close();
+
+		Assert.assertFalse( channel.closed );
+		Assert.assertTrue( channel.gatheringWrites >= channel.bytes.size() / 300 );
+		JSONValue records = JSONParser.parse( channel.bytes.toByteArray() );
+		Assert.assertEquals( 50000, records.length() );
+		Assert.assertEquals( "record number 49999", new String( records.get( 49999 ).get( "name" ).stringValue, "UTF-8" ) );
+
+	}
+
+	@Test
+	public void testRawFragments() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONGenerator generator = new JSONGenerator( out );
+		generator.openArray();
+		generator.writeRaw( JSONUtils.toByteArray( "{\"cached\":true}" ) );
+		generator.next();
+		generator.writeRaw( JSONUtils.toByteArray( "x[1,2]x" ), 1, 5 );
+		generator.closeArray();
+		generator.close();
+
+		Assert.assertEquals( "[{\"cached\":true},[1,2]]", out.toString() );
+
+	}
+
+	@Test
+	public void testTokens() throws IOException {
+
+		JSONToken id = JSONGenerator.token( "userId" );
+		JSONToken quoted = JSONGenerator.token( "say \"hi\"\n" );
+		Assert.assertEquals( "\"userId\":", id.toString() );
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		JSONGenerator plain = new JSONGenerator( expected, true );
+		JSONGenerator tokens = new JSONGenerator( actual, true );
+		plain.openObject();
+		tokens.openObject();
+		plain.writeKey( "userId" );
+		tokens.writeKey( id );
+		plain.write( 7 );
+		tokens.write( 7 );
+		plain.next();
+		tokens.next();
+		plain.writeKey( "say \"hi\"\n" );
+		tokens.writeKey( quoted );
+		plain.writeNull();
+		tokens.writeNull();
+		plain.closeObject();
+		tokens.closeObject();
+		plain.close();
+		tokens.close();
+
+		Assert.assertEquals( expected.toString(), actual.toString() );
+		Assert.assertEquals( "{\n    \"userId\": 7,\n    \"say \\\"hi\\\"\\n\": null\n}", actual.toString() );
+
+	}
+
+	@Test
+	public void testWritesAfterClose() throws IOException {
+
+		JSONGenerator generator = new JSONGenerator( new ByteArrayOutputStream() );
+		generator.close();
+		try {
+			generator.write( 1 );
+			Assert.fail();
+		} catch( IOException exception ) {
+			Assert.assertEquals( "JSONGenerator is closed", exception.getMessage() );
+		}
+		try {
+			generator.writeString( "a" );
+			Assert.fail();
+		} catch( IOException exception ) {
+			Assert.assertEquals( "JSONGenerator is closed", exception.getMessage() );
+		}
+
+	}
+
 }
@@ -0,0 +1,76 @@
+package org.twuni.twoson;
+
+import org.junit.Test;
+
+public class JSONLazyValueTest extends TestFixture {
+
+	private static final String DOCUMENT = "{\"id\":9007199254740993,\"name\":\"la\\\"zy\",\"ratio\":0.25,\"ok\":true,\"none\":null,\"tags\":[\"a\",\"]\",[1,2,{\"x\":-1}],{}],\"nested\":{\"deep\":{\"deeper\":[]}},\"k\\\\ey\":\"escaped\",\"count\":42}";
+
+	@Test
+	public void get_shouldMemoizeChildren() {
+		JSONLazyValue root = JSONParser.parseLazy( DOCUMENT );
+		assertSame( root.get( "tags" ), root.get( "tags" ) );
+		assertSame( root.get( "tags" ).get( 2 ), root.get( "tags" ).get( 2 ) );
+	}
+
+	@Test
+	public void get_shouldNavigateLikeJSONValue() {
+		JSONLazyValue root = JSONParser.parseLazy( " \n" + DOCUMENT + "\n" );
+		JSONValue tree = JSONParser.parse( DOCUMENT );
+
+		assertEquals( JSONValue.Type.OBJECT, root.type() );
+		assertEquals( tree.length(), root.length() );
+		assertEquals( 9007199254740993L, root.get( "id" ).longValue() );
+		assertEquals( JSONValue.Type.LONG, root.get( "id" ).type() );
+		assertArrayEquals( tree.get( "name" ).stringValue, root.get( "name" ).stringValue() );
+		assertEquals( 0.25, root.get( "ratio" ).doubleValue(), 0 );
+		assertTrue( root.get( "ok" ).booleanValue() );
+		assertEquals( JSONValue.Type.NULL, root.get( "none" ).type() );
+		assertEquals( 4, root.get( "tags" ).length() );
+		assertArrayEquals( JSONUtils.toByteArray( "]" ), root.get( "tags" ).get( 1 ).stringValue() );
+		assertEquals( -1, root.get( "tags" ).get( 2 ).get( 2 ).get( new JSONKey( "x" ) ).intValue() );
+		assertEquals( 0, root.get( "tags" ).get( 3 ).length() );
+		assertEquals( 0, root.get( "nested" ).get( "deep" ).get( "deeper" ).length() );
+		assertArrayEquals( JSONUtils.toByteArray( "escaped" ), root.get( "k\\ey" ).stringValue() );
+		assertEquals( 42, root.get( "count" ).intValue() );
+		assertNull( root.get( "missing" ) );
+		for( int i = 0; i < tree.length(); i++ ) {
+			assertArrayEquals( tree.keyAt( i ), root.keyAt( i ) );
+		}
+	}
+
+	@Test
+	public void get_shouldNotDecodeUnreachedSubtrees() {
+		JSONLazyValue root = JSONParser.parseLazy( "{\"skipped\":[{\"a\":tru},1.2.3],\"read\":7}" );
+		assertEquals( 7, root.get( "read" ).intValue() );
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void get_withReachedMalformedValue_shouldFail() {
+		JSONParser.parseLazy( "{\"skipped\":[{\"a\":tru}],\"read\":7}" ).get( "skipped" ).get( 0 ).get( "a" ).booleanValue();
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void get_withTrailingComma_shouldFail() {
+		JSONParser.parseLazy( "[1,2,]" ).get( 0 );
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void parseLazy_withTrailingGarbage_shouldFail() {
+		JSONParser.parseLazy( "{\"a\":1} x" );
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void parseLazy_withUnterminatedArray_shouldFail() {
+		JSONParser.parseLazy( "[1,[2,3]" );
+	}
+
+	@Test
+	public void toJSONValue_shouldReproduceTree() {
+		JSONLazyValue root = JSONParser.parseLazy( DOCUMENT );
+		assertEquals( JSONParser.parse( DOCUMENT ).toString(), root.toJSONValue().toString() );
+		assertEquals( JSONParser.parse( "[1,2,{\"x\":-1}]" ).toString(), root.get( "tags" ).get( 2 ).toJSONValue().toString() );
+		assertEquals( "\"escaped\"", root.get( "k\\ey" ).toString() );
+	}
+
+}
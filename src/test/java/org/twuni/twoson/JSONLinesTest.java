@@ -0,0 +1,181 @@
+/**
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2013 Twuni
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.twuni.twoson;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class JSONLinesTest extends TestFixture {
+
+	/**
+	 * Collects records as "position=value" strings, from any number of threads.
+	 */
+	private static class Collector implements JSONRecordListener {
+
+		final List<String> records = new ArrayList<String>();
+
+		@Override
+		public synchronized void onRecord( long position, JSONValue record ) {
+			records.add( position + "=" + record );
+		}
+
+	}
+
+	private static String lines( int count ) {
+		StringBuilder json = new StringBuilder();
+		for( int i = 0; i < count; i++ ) {
+			json.append( "{\"id\":" ).append( i ).append( ",\"tags\":[\"a\\nb\",null,true],\"ratio\":" ).append( i / 7.0 ).append( i % 5 == 0 ? "}\r\n\n" : "}\n" );
+		}
+		return json.toString();
+	}
+
+	private static List<String> sequential( byte [] bytes ) {
+		Collector collector = new Collector();
+		JSONLines.parse( bytes, collector );
+		return collector.records;
+	}
+
+	@Test
+	public void parse_sequentially_shouldReportEachLineWithItsPosition() {
+		List<String> records = sequential( JSONUtils.toByteArray( "{\"a\":1}\n\n  \r\n[2]\r\n\"x\"" ) );
+		assertEquals( 3, records.size() );
+		assertEquals( "0=" + JSONParser.parse( "{\"a\":1}" ), records.get( 0 ) );
+		assertEquals( "13=[2]", records.get( 1 ) );
+		assertEquals( "18=\"x\"", records.get( 2 ) );
+	}
+
+	@Test
+	public void parse_inParallel_shouldMatchSequentialOrder() throws IOException {
+		byte [] bytes = JSONUtils.toByteArray( lines( 5000 ) );
+		List<String> expected = sequential( bytes );
+		assertEquals( 5000, expected.size() );
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			for( int chunkSize : new int [] { 1, 100, 4096, JSONLines.DEFAULT_CHUNK_SIZE } ) {
+				Collector ordered = new Collector();
+				JSONLines.parse( ByteBuffer.wrap( bytes ), 0, bytes.length, 0, chunkSize, executor, true, ordered );
+				assertEquals( expected, ordered.records );
+				Collector unordered = new Collector();
+				JSONLines.parse( ByteBuffer.wrap( bytes ), 0, bytes.length, 0, chunkSize, executor, false, unordered );
+				Collections.sort( unordered.records );
+				List<String> sorted = new ArrayList<String>( expected );
+				Collections.sort( sorted );
+				assertEquals( sorted, unordered.records );
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void parse_fromDirectBufferAndFile_shouldMatchByteArray() throws IOException {
+		byte [] bytes = JSONUtils.toByteArray( lines( 2000 ) );
+		List<String> expected = sequential( bytes );
+		ExecutorService executor = Executors.newFixedThreadPool( 3 );
+		File file = File.createTempFile( "twoson", ".jsonl" );
+		file.deleteOnExit();
+		try {
+			ByteBuffer direct = ByteBuffer.allocateDirect( bytes.length );
+			direct.put( bytes ).flip();
+			Collector collector = new Collector();
+			JSONLines.parse( direct, executor, true, collector );
+			assertEquals( expected, collector.records );
+			assertFalse( direct.hasRemaining() );
+			FileOutputStream out = new FileOutputStream( file );
+			try {
+				out.write( bytes );
+			} finally {
+				out.close();
+			}
+			collector = new Collector();
+			JSONLines.parse( file, executor, true, collector );
+			assertEquals( expected, collector.records );
+			RandomAccessFile in = new RandomAccessFile( file, "r" );
+			try {
+				collector = new Collector();
+				JSONLines.parse( in.getChannel(), 4093, 1000, executor, true, collector );
+				assertEquals( expected, collector.records );
+			} finally {
+				in.close();
+			}
+		} finally {
+			executor.shutdown();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void parse_withMalformedLine_shouldReportItsPositionInTheInput() throws IOException {
+		String json = lines( 1000 );
+		int broken = json.length();
+		json += "[1,:]\n" + lines( 1000 );
+		byte [] bytes = JSONUtils.toByteArray( json );
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			JSONLines.parse( ByteBuffer.wrap( bytes ), 0, bytes.length, 0, 512, executor, true, new Collector() );
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertEquals( broken + 3, exception.getPosition() );
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void parse_withTruncatedLine_shouldFailAtThatLine() {
+		try {
+			JSONLines.parse( JSONUtils.toByteArray( "{\"a\":1}\n{\"b\":\n{\"c\":3}\n" ), new Collector() );
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertEquals( 8, exception.getPosition() );
+		}
+		try {
+			JSONLines.parse( JSONUtils.toByteArray( "[1,\n[3]\n" ), new Collector() );
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertEquals( 0, exception.getPosition() );
+		}
+		assertEquals( Collections.singletonList( "0={\"d\":4}" ), sequential( JSONUtils.toByteArray( "{\"d\":4}\n" ) ) );
+	}
+
+	@Test
+	public void parse_withTwoValuesOnOneLine_shouldFailAtThatLine() {
+		try {
+			JSONLines.parse( JSONUtils.toByteArray( "1\n1 2\n3\n" ), new Collector() );
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertEquals( 2, exception.getPosition() );
+		}
+	}
+
+}
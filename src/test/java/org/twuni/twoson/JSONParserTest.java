@@ -22,6 +22,19 @@
  */
 package org.twuni.twoson;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class JSONParserTest extends TestFixture {
@@ -42,6 +55,26 @@ public class JSONParserTest extends TestFixture {
 		assertType( expectedType, JSONParser.parse( json ).get( key ) );
 	}
 
+	private static File temporaryFile( String json ) throws IOException {
+		File file = File.createTempFile( "twoson", ".json" );
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream( file );
+		try {
+			out.write( JSONUtils.toByteArray( json ) );
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static String largeDocument() {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 10000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"name\":\"n\\u00e9\\\"" ).append( i ).append( "\",\"ratio\":" ).append( i / 7.0 ).append( "}" );
+		}
+		return json.append( "]" ).toString();
+	}
+
 	@Test
 	public void assertTypes() {
 
@@ -87,4 +120,465 @@ public class JSONParserTest extends TestFixture {
 		expectString( "{\"a\":\"Ǥ😀\"}", "Ǥ😀" );
 	}
 
+	@Test
+	public void parse_byteArray_shouldNotModifyInput() {
+		byte [] json = JSONUtils.toByteArray( "{\"a\":[1,\"two\",3.5,true,null]}" );
+		byte [] original = Arrays.copyOf( json, json.length );
+		JSONParser.parse( json );
+		assertArrayEquals( original, json );
+	}
+
+	@Test
+	public void parse_byteArrayRegion_shouldMatchInputStream() throws IOException {
+		byte [] json = JSONUtils.toByteArray( "xx{\"a\":[1,-2,\"three\",4.5,{\"b\":false}],\"c\":null}yy" );
+		JSONValue fromArray = JSONParser.parse( json, 2, json.length - 4 );
+		JSONValue fromStream = JSONParser.parse( new ByteArrayInputStream( json, 2, json.length - 4 ) );
+		assertEquals( fromStream.toString(), fromArray.toString() );
+		assertEquals( -2, fromArray.get( "a" ).get( 1 ).intValue );
+		assertEquals( 4.5, fromArray.get( "a" ).get( 3 ).doubleValue, 0 );
+	}
+
+	@Test
+	public void read_deeplyNested_shouldBalanceScopes() {
+		StringBuilder json = new StringBuilder();
+		for( int i = 0; i < 10000; i++ ) {
+			json.append( "{\"a\":[" );
+		}
+		for( int i = 0; i < 10000; i++ ) {
+			json.append( "]}" );
+		}
+		assertType( JSONValue.Type.OBJECT, json.toString() );
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void read_beyondMaximumDepth_shouldFail() throws IOException {
+		byte [] json = JSONUtils.toByteArray( "[[[[]]]]" );
+		JSONParser parser = new JSONParser( json, 0, json.length, new BaseJSONEventListener() );
+		parser.setMaximumDepth( 3 );
+		parser.read();
+	}
+
+	@Test
+	public void read_withSymbolTable_shouldShareRepeatedKeys() throws IOException {
+		byte [] json = JSONUtils.toByteArray( "[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"b\"},{\"id\":3,\"name\":\"c\"}]" );
+		JSONSymbolTable symbols = new JSONSymbolTable();
+		JSONValueBuilder builder = new JSONValueBuilder();
+		JSONParser parser = new JSONParser( json, 0, json.length, builder );
+		parser.setSymbolTable( symbols );
+		parser.read();
+
+		JSONValue value = builder.getResult();
+		assertSame( value.get( 0 ).keyAt( 0 ), value.get( 2 ).keyAt( 0 ) );
+		assertSame( value.get( 0 ).keyAt( 1 ), value.get( 1 ).keyAt( 1 ) );
+		assertEquals( 3, value.get( 2 ).get( "id" ).intValue );
+		assertEquals( 2, symbols.size() );
+		assertEquals( 4, symbols.getHits() );
+		assertEquals( 2, symbols.getMisses() );
+	}
+
+	@Test
+	public void read_withFullSymbolTable_shouldDeliverKeysAsUsual() throws IOException {
+		byte [] json = JSONUtils.toByteArray( "[{\"a\":1,\"b\":2,\"long key\":3},{\"a\":4,\"b\":5,\"long key\":6}]" );
+		JSONSymbolTable symbols = new JSONSymbolTable( 1, 4 );
+		JSONValueBuilder builder = new JSONValueBuilder();
+		JSONParser parser = new JSONParser( json, 0, json.length, builder );
+		parser.setSymbolTable( symbols );
+		parser.read();
+
+		JSONValue value = builder.getResult();
+		assertEquals( 1, symbols.size() );
+		assertSame( value.get( 0 ).keyAt( 0 ), value.get( 1 ).keyAt( 0 ) );
+		assertNotSame( value.get( 0 ).keyAt( 1 ), value.get( 1 ).keyAt( 1 ) );
+		assertEquals( 5, value.get( 1 ).get( "b" ).intValue );
+		assertEquals( 6, value.get( 1 ).get( "long key" ).intValue );
+		assertEquals( 1, symbols.getHits() );
+		assertEquals( 5, symbols.getMisses() );
+	}
+
+	@Test
+	public void read_withSymbolTable_shouldPassPlainListenersCopies() throws IOException {
+		byte [] json = JSONUtils.toByteArray( "{\"a\":1}" );
+		final JSONSymbolTable symbols = new JSONSymbolTable();
+		final List<String> keys = new ArrayList<String>();
+		JSONParser parser = new JSONParser( json, 0, json.length, new BaseJSONEventListener() {
+
+			@Override
+			public void onObjectKey( byte [] value ) {
+				keys.add( new String( value ) );
+			}
+
+		} );
+		parser.setSymbolTable( symbols );
+		parser.read();
+
+		assertEquals( Arrays.asList( "a" ), keys );
+		assertEquals( 1, symbols.size() );
+	}
+
+	@Test
+	public void read_withinMaximumDepth_shouldSucceed() throws IOException {
+		byte [] json = JSONUtils.toByteArray( "[{\"a\":[]},[[]]]" );
+		JSONParser parser = new JSONParser( json, 0, json.length, new BaseJSONEventListener() );
+		parser.setMaximumDepth( 3 );
+		parser.read();
+	}
+
+	@Test
+	public void parse_fromHeapByteBuffer_shouldReadRemainingBytesInPlace() {
+		String json = largeDocument();
+		byte [] bytes = JSONUtils.toByteArray( "xx" + json + "yy" );
+		ByteBuffer in = ByteBuffer.wrap( bytes, 2, bytes.length - 4 ).slice();
+		assertEquals( JSONParser.parse( json ).toString(), JSONParser.parse( in ).toString() );
+		assertEquals( in.limit(), in.position() );
+		assertEquals( 'x', bytes[0] );
+	}
+
+	@Test
+	public void parse_fromDirectByteBuffer_shouldMatchByteArray() {
+		String json = largeDocument();
+		byte [] bytes = JSONUtils.toByteArray( json );
+		ByteBuffer in = ByteBuffer.allocateDirect( bytes.length + 3 );
+		in.put( (byte) ' ' ).put( bytes ).flip();
+		in.get();
+		assertEquals( JSONParser.parse( json ).toString(), JSONParser.parse( in ).toString() );
+		assertFalse( in.hasRemaining() );
+	}
+
+	@Test
+	public void parse_fromChannel_shouldMatchByteArray() throws IOException {
+		String json = largeDocument();
+		JSONValue expected = JSONParser.parse( json );
+		for( int i = 0; i < 2; i++ ) {
+			assertEquals( expected.toString(), JSONParser.parse( Channels.newChannel( new ByteArrayInputStream( JSONUtils.toByteArray( json ) ) ) ).toString() );
+		}
+	}
+
+	@Test
+	public void parse_fromFile_shouldMatchByteArray() throws IOException {
+		String json = largeDocument();
+		File file = temporaryFile( json );
+		assertEquals( JSONParser.parse( json ).toString(), JSONParser.parse( file ).toString() );
+		file.delete();
+	}
+
+	@Test
+	public void read_fromFileInSmallSegments_shouldMatchByteArray() throws IOException {
+		String json = largeDocument();
+		File file = temporaryFile( json );
+		RandomAccessFile in = new RandomAccessFile( file, "r" );
+		try {
+			for( long segmentSize : new long [] { 4093, 65536, 100000 } ) {
+				in.getChannel().position( 0 );
+				JSONValueBuilder builder = new JSONValueBuilder();
+				new JSONParser( new MappedInputStream( in.getChannel(), segmentSize ), builder ).read();
+				assertEquals( JSONParser.parse( json ).toString(), builder.getResult().toString() );
+			}
+		} finally {
+			in.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void read_withErrorInLaterChunk_shouldReportPosition() throws IOException {
+		String json = largeDocument();
+		String broken = json.substring( 0, 200000 ) + "}" + json.substring( 200000 );
+		try {
+			JSONParser.parse( new ByteArrayInputStream( JSONUtils.toByteArray( broken ) ) );
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertTrue( exception.getPosition() >= 200000 );
+			assertTrue( exception.getPosition() < 200100 );
+			assertTrue( exception.getMessage().endsWith( " at position " + exception.getPosition() ) );
+		}
+		try {
+			JSONParser.parse( JSONUtils.toByteArray( "xx[1,:]" ), 2, 5 );
+			fail();
+		} catch( IllegalFormatException exception ) {
+			assertEquals( 3, exception.getPosition() );
+		}
+	}
+
+	@Test
+	public void parseEach_shouldHandOverEachTopLevelValue() {
+		final List<String> records = new ArrayList<String>();
+		JSONParser.parseEach( JSONUtils.toByteArray( "{\"a\":1} [2]\n\"s\" 3 true null{\"b\":{}}\n" ), new JSONRecordListener() {
+
+			@Override
+			public void onRecord( long position, JSONValue record ) {
+				records.add( position + "=" + record );
+			}
+
+		} );
+		assertEquals( Arrays.asList( "0=" + JSONParser.parse( "{\"a\":1}" ), "8=[2]", "12=\"s\"", "16=3", "18=true", "23=null", "27=" + JSONParser.parse( "{\"b\":{}}" ) ), records );
+	}
+
+	@Test
+	public void parseEach_fromLongStream_shouldHandOverValuesAsTheyArrive() throws IOException {
+		final byte [] document = JSONUtils.toByteArray( "{\"id\":7,\"tags\":[\"a\",\"b\"]}\n" );
+		final int count = 100000;
+		InputStream in = new InputStream() {
+
+			private long position;
+
+			@Override
+			public int read() {
+				if( position == (long) count * document.length ) {
+					return -1;
+				}
+				return document[(int) ( position++ % document.length )];
+			}
+
+		};
+		final long [] seen = { 0 };
+		JSONParser.parseEach( in, new JSONRecordListener() {
+
+			@Override
+			public void onRecord( long position, JSONValue record ) {
+				assertEquals( seen[0] * document.length, position );
+				assertEquals( 7, record.get( "id" ).intValue );
+				seen[0]++;
+			}
+
+		} );
+		assertEquals( count, seen[0] );
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void parseEach_withUnfinishedValue_shouldFail() {
+		JSONParser.parseEach( JSONUtils.toByteArray( "[1] {\"a\":[2" ), new JSONRecordListener() {
+
+			@Override
+			public void onRecord( long position, JSONValue record ) {
+				// Ignore.
+			}
+
+		} );
+	}
+
+	@Test
+	public void read_afterReset_shouldParseNextSource() throws IOException {
+		JSONParser parser = new JSONParser();
+		byte [] first = JSONUtils.toByteArray( "{\"a\":[1,2,3]}" );
+		byte [] second = JSONUtils.toByteArray( "[\"x\",{\"b\":true}]" );
+
+		JSONValueBuilder builder = new JSONValueBuilder();
+		parser.reset( new ByteArrayInputStream( first ), builder );
+		parser.read();
+		assertEquals( 3, builder.getResult().get( "a" ).length() );
+
+		builder = new JSONValueBuilder();
+		parser.reset( second, 0, second.length, builder );
+		parser.read();
+		assertTrue( builder.getResult().get( 1 ).get( "b" ).booleanValue );
+	}
+
+	@Test
+	public void parse_fromWithinListener_shouldNotDisturbOuterParse() {
+		final JSONValue [] inner = new JSONValue [1];
+		JSONValueBuilder outer = new JSONValueBuilder() {
+
+			@Override
+			public void onString( byte [] buffer, int offset, int length ) {
+				super.onString( buffer, offset, length );
+				inner[0] = JSONParser.parse( buffer, offset, length );
+			}
+
+		};
+		JSONParser.parse( "[\"[1,2]\",3]", outer );
+		assertEquals( 2, outer.getResult().length() );
+		assertEquals( 3, outer.getResult().get( 1 ).intValue );
+		assertEquals( 2, inner[0].length() );
+	}
+
+	@Test
+	public void read_onString_shouldSliceInputWhenUnescaped() {
+		final byte [] json = JSONUtils.toByteArray( "{\"key\":\"plain\"}" );
+		final int [] slices = new int [2];
+		JSONParser.parse( json, new BaseJSONEventListener() {
+
+			@Override
+			public void onObjectKey( byte [] buffer, int offset, int length ) {
+				assertSame( json, buffer );
+				assertEquals( 2, offset );
+				assertEquals( 3, length );
+				slices[0]++;
+			}
+
+			@Override
+			public void onString( byte [] buffer, int offset, int length ) {
+				assertSame( json, buffer );
+				assertEquals( 8, offset );
+				assertEquals( 5, length );
+				slices[1]++;
+			}
+
+		} );
+		assertEquals( 1, slices[0] );
+		assertEquals( 1, slices[1] );
+	}
+
+	@Test
+	public void read_onString_shouldDecodeEscapesAcrossChunks() throws IOException {
+		StringBuilder expected = new StringBuilder();
+		StringBuilder json = new StringBuilder( "[\"" );
+		for( int i = 0; i < 70000; i++ ) {
+			expected.append( i % 1000 == 0 ? "\"" : "x" );
+			json.append( i % 1000 == 0 ? "\\\"" : "x" );
+		}
+		json.append( "\"]" );
+		JSONValue value = JSONParser.parse( new ByteArrayInputStream( JSONUtils.toByteArray( json.toString() ) ) );
+		assertEquals( expected.toString(), new String( value.get( 0 ).stringValue, "UTF-8" ) );
+	}
+
+	@Test
+	public void read_onString_shouldDecodeEscapedKeys() {
+		JSONValue value = JSONParser.parse( "{\"a\\tb\":1}" );
+		assertArrayEquals( JSONUtils.toByteArray( "a\tb" ), value.keyAt( 0 ) );
+	}
+
+	@Test
+	public void read_onString_shouldFindEscapesAtAnyWordOffset() throws IOException {
+		for( int i = 0; i < 24; i++ ) {
+			StringBuilder prefix = new StringBuilder();
+			for( int j = 0; j < i; j++ ) {
+				prefix.append( (char) ( 'a' + j ) );
+			}
+			String suffix = "0123456789abcdefghijklmnopqrstuvwxyz";
+			expectString( "[\"" + prefix + "\\\"" + suffix + "\"]", prefix + "\"" + suffix );
+			expectString( "[\"" + prefix + "\\\\" + suffix + "\"]", prefix + "\\" + suffix );
+			expectString( "[\"" + prefix + "\"]", prefix.toString() );
+		}
+	}
+
+	@Test
+	public void read_withLongWhitespaceRuns_shouldIgnoreWhitespace() {
+		JSONValue value = JSONParser.parse( "{\n                \"a\" :\t\t\t\t\t\t\t\t\t[\r\n                    1 ,\n                    \"b\"\n                ]\n}                                " );
+		assertEquals( 2, value.get( "a" ).length() );
+		assertArrayEquals( JSONUtils.toByteArray( "b" ), value.get( "a" ).get( 1 ).stringValue );
+	}
+
+	@Test
+	public void read_onNumber_shouldChooseIntegerTypeByValue() {
+		assertType( JSONValue.Type.LONG, Long.toString( Integer.MAX_VALUE + 1L ) );
+		assertType( JSONValue.Type.LONG, Long.toString( Integer.MIN_VALUE - 1L ) );
+		assertType( JSONValue.Type.LONG, Long.toString( Long.MAX_VALUE ) );
+		assertType( JSONValue.Type.LONG, Long.toString( Long.MIN_VALUE ) );
+		assertEquals( Long.MAX_VALUE, JSONParser.parse( Long.toString( Long.MAX_VALUE ) ).longValue );
+		assertEquals( Long.MIN_VALUE, JSONParser.parse( Long.toString( Long.MIN_VALUE ) ).longValue );
+		assertEquals( 9007199254740993L, JSONParser.parse( "[9007199254740993]" ).get( 0 ).longValue );
+		assertType( JSONValue.Type.DOUBLE, "1.000001" );
+		assertType( JSONValue.Type.DOUBLE, "2.0" );
+		assertType( JSONValue.Type.INTEGER, "-0" );
+	}
+
+	@Test
+	public void read_onNumber_shouldAcceptUnsignedExponents() {
+		assertEquals( 1e5, JSONParser.parse( "1e5" ).doubleValue, 0 );
+		assertEquals( 1.5e-5, JSONParser.parse( "[1.5E-5]" ).get( 0 ).doubleValue, 0 );
+		assertEquals( 2.5e300, JSONParser.parse( "{\"a\":25e+299}" ).get( "a" ).doubleValue, 0 );
+	}
+
+	@Test
+	public void read_onNumber_shouldRoundTripDoubles() {
+		Random random = new Random( 0 );
+		for( int i = 0; i < 100000; i++ ) {
+			double expected = Double.longBitsToDouble( random.nextLong() );
+			if( Double.isNaN( expected ) || Double.isInfinite( expected ) ) {
+				continue;
+			}
+			String json = Double.toString( expected );
+			assertEquals( json, Double.doubleToLongBits( expected ), Double.doubleToLongBits( JSONParser.parse( json ).doubleValue ) );
+		}
+	}
+
+	@Test
+	public void read_onNumber_shouldRoundDecimalsCorrectly() {
+		String [] inputs = {
+			"0.1",
+			"2.2250738585072011e-308",
+			"2.2250738585072012e-308",
+			"4.9e-324",
+			"1.7976931348623157e308",
+			"1.7976931348623159e308",
+			"9007199254740993.0",
+			"123456789012345678901234567890.5",
+			"0.30000000000000004",
+			"1e-400",
+			"1e400"
+		};
+		for( String input : inputs ) {
+			assertEquals( input, Double.doubleToLongBits( Double.parseDouble( input ) ), Double.doubleToLongBits( JSONParser.parse( input ).doubleValue ) );
+		}
+	}
+
+	@Test
+	public void read_onNumber_shouldPassOversizedNumbersVerbatim() {
+		final String [] actual = new String [1];
+		JSONParser.parse( "[123456789012345678901234567890]", new BaseJSONEventListener() {
+
+			@Override
+			public void onNumber( byte [] buffer, int offset, int length ) {
+				actual[0] = new String( buffer, offset, length );
+			}
+
+		} );
+		assertEquals( "123456789012345678901234567890", actual[0] );
+		assertEquals( 1.2345678901234568e29, JSONParser.parse( "123456789012345678901234567890" ).doubleValue, 0 );
+	}
+
+	@Test
+	public void read_onNumber_shouldReadNumbersAcrossChunks() throws IOException {
+		Random random = new Random( 1 );
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 20000; i++ ) {
+			json.append( i > 0 ? "," : "" );
+			switch( i % 3 ) {
+				case 0:
+					json.append( random.nextLong() );
+					break;
+				case 1:
+					json.append( random.nextDouble() * 1e-5 );
+					break;
+				default:
+					json.append( "-123456789012345678901234567890.125e3" );
+					break;
+			}
+		}
+		byte [] in = JSONUtils.toByteArray( json.append( "]" ).toString() );
+		JSONValue fromArray = JSONParser.parse( in );
+		JSONValue fromStream = JSONParser.parse( new ByteArrayInputStream( in ) );
+		assertEquals( 20000, fromStream.length() );
+		for( int i = 0; i < fromArray.length(); i++ ) {
+			assertEquals( fromArray.get( i ).type, fromStream.get( i ).type );
+			assertEquals( fromArray.get( i ).longValue, fromStream.get( i ).longValue );
+			assertEquals( Double.doubleToLongBits( fromArray.get( i ).doubleValue ), Double.doubleToLongBits( fromStream.get( i ).doubleValue ) );
+		}
+	}
+
+	@Test
+	public void parse_largeArray_shouldKeepElementsInOrder() {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 200000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( i );
+		}
+		JSONValue value = JSONParser.parse( json.append( "]" ).toString() );
+		assertEquals( 200000, value.length() );
+		for( int i = 0; i < value.length(); i++ ) {
+			assertEquals( i, value.get( i ).intValue );
+		}
+	}
+
+	@Test
+	public void parse_nestedContainers_shouldAttachEachToItsOwnKey() {
+		JSONValue value = JSONParser.parse( "{\"a\":{\"b\":[1,{\"c\":2}],\"d\":3},\"e\":[],\"f\":\"g\"}" );
+		assertEquals( 3, value.length() );
+		assertEquals( 2, value.get( "a" ).get( "b" ).get( 1 ).get( "c" ).intValue );
+		assertEquals( 3, value.get( "a" ).get( "d" ).intValue );
+		assertEquals( 0, value.get( "e" ).length() );
+		assertArrayEquals( JSONUtils.toByteArray( "g" ), value.get( "f" ).stringValue );
+		assertArrayEquals( JSONUtils.toByteArray( "a" ), value.keyAt( 0 ) );
+		assertArrayEquals( JSONUtils.toByteArray( "f" ), value.keyAt( 2 ) );
+	}
+
 }
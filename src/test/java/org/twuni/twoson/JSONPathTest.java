@@ -0,0 +1,145 @@
+package org.twuni.twoson;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JSONPathTest extends TestFixture {
+
+	private static final String DOCUMENT = "{\"user\":{\"id\":7,\"name\":\"x\\\"}]\",\"roles\":[\"a\",{\"b\":[]}]},\"items\":[{\"sku\":\"s1\",\"qty\":1},{\"qty\":2,\"sku\":\"s2\",\"more\":{\"sku\":\"no\"}},3,\"s4\"],\"skipped\":[[[{\"}\":\"]\"}]]],\"count\":42}";
+
+	private static void append( StringBuilder json, Random random, int depth ) {
+		switch( depth > 4 ? 2 : random.nextInt( 4 ) ) {
+			case 0:
+				json.append( '[' );
+				for( int i = random.nextInt( 4 ); i > 0; i-- ) {
+					append( json, random, depth + 1 );
+					json.append( i > 1 ? "," : "" );
+				}
+				json.append( ']' );
+				break;
+			case 1:
+				json.append( '{' );
+				for( int i = random.nextInt( 4 ); i > 0; i-- ) {
+					json.append( "\"k\":" );
+					append( json, random, depth + 1 );
+					json.append( i > 1 ? "," : "" );
+				}
+				json.append( '}' );
+				break;
+			case 2:
+				json.append( '"' );
+				for( int i = random.nextInt( 24 ); i > 0; i-- ) {
+					if( random.nextInt( 3 ) == 0 ) {
+						json.append( random.nextBoolean() ? "\\\\" : "\\\"" );
+					} else {
+						json.append( "ab{}[] ".charAt( random.nextInt( 7 ) ) );
+					}
+				}
+				json.append( '"' );
+				break;
+			default:
+				json.append( random.nextInt( 2 ) == 0 ? "-1.5e3" : "true" );
+				break;
+		}
+	}
+
+	private static String filter( String json, String... paths ) throws IOException {
+		byte [] in = JSONUtils.toByteArray( json );
+		JSONValueBuilder builder = new JSONValueBuilder();
+		JSONParser parser = new JSONParser( in, 0, in.length, builder );
+		parser.setFilter( JSONPath.compile( paths ) );
+		parser.read();
+		return String.valueOf( builder.getResult() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void compile_withoutRoot_shouldFail() {
+		JSONPath.compile( "user.id" );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void compile_withUnclosedBracket_shouldFail() {
+		JSONPath.compile( "$.items[0" );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void compile_withTooManyPaths_shouldFail() {
+		JSONPath.compile( new String [65] );
+	}
+
+	@Test
+	public void read_withFilter_shouldKeepOnlyMatchesAndTheirAncestors() throws IOException {
+		assertEquals( JSONParser.parse( "{\"user\":{\"id\":7},\"items\":[{\"sku\":\"s1\"},{\"sku\":\"s2\"}]}" ).toString(), filter( DOCUMENT, "$.user.id", "$.items[*].sku" ) );
+	}
+
+	@Test
+	public void read_withFilter_shouldKeepMatchedContainersWhole() throws IOException {
+		assertEquals( JSONParser.parse( "{\"user\":{\"roles\":[\"a\",{\"b\":[]}]},\"count\":42}" ).toString(), filter( DOCUMENT, "$.user.roles", "$['count']" ) );
+	}
+
+	@Test
+	public void read_withFilterByIndex_shouldKeepSelectedElements() throws IOException {
+		assertEquals( JSONParser.parse( "{\"items\":[{\"sku\":\"s2\",\"more\":{\"sku\":\"no\"}},\"s4\"]}" ).toString(), filter( DOCUMENT, "$.items[1].more", "$.items[1].sku", "$.items[3]" ) );
+	}
+
+	@Test
+	public void read_withRootFilter_shouldKeepEverything() throws IOException {
+		assertEquals( JSONParser.parse( DOCUMENT ).toString(), filter( DOCUMENT, "$" ) );
+	}
+
+	@Test
+	public void read_withWildcardFilter_shouldKeepEveryContainerThatMayMatch() throws IOException {
+		assertEquals( JSONParser.parse( "{\"user\":{\"id\":7},\"items\":[],\"skipped\":[]}" ).toString(), filter( DOCUMENT, "$.*.id" ) );
+	}
+
+	@Test
+	public void read_withFilterAcrossChunks_shouldSkipLargeSubtrees() throws IOException {
+		StringBuilder json = new StringBuilder( "{\"noise\":[" );
+		for( int i = 0; i < 20000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"s\":\"a\\\\\\\"b{[\",\"n\":-1.5e3,\"t\":true}" );
+		}
+		json.append( "],\"wanted\":{\"deep\":[1,2,3]}}" );
+		InputStream in = new ByteArrayInputStream( JSONUtils.toByteArray( json.toString() ) );
+		JSONValueBuilder builder = new JSONValueBuilder();
+		JSONParser parser = new JSONParser( in, builder );
+		parser.setFilter( JSONPath.compile( "$.wanted.deep[2]" ) );
+		parser.read();
+		assertEquals( JSONParser.parse( "{\"wanted\":{\"deep\":[3]}}" ).toString(), builder.getResult().toString() );
+	}
+
+	@Test
+	public void read_withFilterInSmallReads_shouldSkipRandomSubtrees() throws IOException {
+		Random random = new Random( 0 );
+		String expected = JSONParser.parse( "{\"b\":[1]}" ).toString();
+		for( int n = 0; n < 2000; n++ ) {
+			StringBuilder json = new StringBuilder( "{\"a\":" );
+			append( json, random, 0 );
+			final byte [] in = JSONUtils.toByteArray( json.append( ",\"b\":[1]}" ).toString() );
+			final int step = 1 + random.nextInt( 13 );
+			InputStream trickle = new ByteArrayInputStream( in ) {
+
+				@Override
+				public synchronized int read( byte [] b, int off, int len ) {
+					return super.read( b, off, Math.min( len, step ) );
+				}
+
+			};
+			JSONValueBuilder builder = new JSONValueBuilder();
+			JSONParser parser = new JSONParser( trickle, builder );
+			parser.setFilter( JSONPath.compile( "$.b" ) );
+			parser.read();
+			assertEquals( json.toString(), expected, builder.getResult().toString() );
+			assertEquals( json.toString(), expected, filter( json.toString(), "$.b" ) );
+		}
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void read_withFilterOverUnterminatedSubtree_shouldFail() throws IOException {
+		filter( "{\"skipped\":[{\"a\":\"]}", "$.wanted" );
+	}
+
+}
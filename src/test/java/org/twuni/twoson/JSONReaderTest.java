@@ -0,0 +1,211 @@
+package org.twuni.twoson;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JSONReaderTest extends TestFixture {
+
+	private static final String DOCUMENT = "{\"id\":9007199254740993,\"name\":\"re\\\"ader\",\"ratio\":0.25,\"ok\":true,\"none\":null,\"big\":123456789012345678901234567890,\"tags\":[\"a\",[1,{\"x\":-1}],{}],\"count\":42}";
+
+	private static List<String> events( String json ) {
+		final List<String> events = new ArrayList<String>();
+		JSONParser.parse( json, new BaseJSONEventListener() {
+
+			@Override
+			public void onBeginArray() {
+				events.add( "BEGIN_ARRAY" );
+			}
+
+			@Override
+			public void onBeginObject() {
+				events.add( "BEGIN_OBJECT" );
+			}
+
+			@Override
+			public void onBoolean( boolean value ) {
+				events.add( "BOOLEAN " + value );
+			}
+
+			@Override
+			public void onDouble( double value ) {
+				events.add( "DOUBLE " + value );
+			}
+
+			@Override
+			public void onEndArray() {
+				events.add( "END_ARRAY" );
+			}
+
+			@Override
+			public void onEndObject() {
+				events.add( "END_OBJECT" );
+			}
+
+			@Override
+			public void onInteger( int value ) {
+				events.add( "INTEGER " + value );
+			}
+
+			@Override
+			public void onLong( long value ) {
+				events.add( "LONG " + value );
+			}
+
+			@Override
+			public void onNull() {
+				events.add( "NULL" );
+			}
+
+			@Override
+			public void onNumber( byte [] buffer, int offset, int length ) {
+				events.add( "NUMBER " + new String( buffer, offset, length ) );
+			}
+
+			@Override
+			public void onObjectKey( byte [] value ) {
+				events.add( "OBJECT_KEY " + new String( value ) );
+			}
+
+			@Override
+			public void onString( byte [] value ) {
+				events.add( "STRING " + new String( value ) );
+			}
+
+		} );
+		return events;
+	}
+
+	private static List<String> events( JSONReader reader ) throws IOException {
+		List<String> events = new ArrayList<String>();
+		for( JSONReader.Token token = reader.nextToken(); token != null; token = reader.nextToken() ) {
+			switch( token ) {
+				case BOOLEAN:
+					events.add( token + " " + reader.booleanValue() );
+					break;
+				case DOUBLE:
+					events.add( token + " " + reader.doubleValue() );
+					break;
+				case INTEGER:
+					events.add( token + " " + reader.intValue() );
+					break;
+				case LONG:
+					events.add( token + " " + reader.longValue() );
+					break;
+				case NUMBER:
+				case OBJECT_KEY:
+				case STRING:
+					events.add( token + " " + new String( reader.buffer(), reader.offset(), reader.length() ) );
+					break;
+				default:
+					events.add( token.toString() );
+					break;
+			}
+		}
+		return events;
+	}
+
+	@Test
+	public void nextToken_shouldMatchListenerEvents() throws IOException {
+		assertEquals( events( DOCUMENT ), events( new JSONReader( DOCUMENT ) ) );
+	}
+
+	@Test
+	public void nextToken_fromStream_shouldMatchListenerEvents() throws IOException {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 5000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( DOCUMENT );
+		}
+		String document = json.append( "]" ).toString();
+		assertEquals( events( document ), events( new JSONReader( new ByteArrayInputStream( JSONUtils.toByteArray( document ) ) ) ) );
+	}
+
+	@Test
+	public void nextToken_atEnd_shouldReturnNull() throws IOException {
+		JSONReader reader = new JSONReader( "[]" );
+		assertEquals( JSONReader.Token.BEGIN_ARRAY, reader.nextToken() );
+		assertEquals( JSONReader.Token.END_ARRAY, reader.nextToken() );
+		assertNull( reader.nextToken() );
+		assertNull( reader.currentToken() );
+		assertNull( reader.nextToken() );
+	}
+
+	@Test( expected = IllegalFormatException.class )
+	public void nextToken_withMismatchedBracket_shouldFail() throws IOException {
+		JSONReader reader = new JSONReader( "[1}" );
+		while( reader.nextToken() != null ) {
+			// Keep reading.
+		}
+	}
+
+	@Test
+	public void path_shouldDescribeCurrentToken() throws IOException {
+		JSONReader reader = new JSONReader( DOCUMENT );
+		List<String> paths = new ArrayList<String>();
+		for( JSONReader.Token token = reader.nextToken(); token != null; token = reader.nextToken() ) {
+			paths.add( token + " " + reader.depth() + " " + reader.path() );
+		}
+		assertEquals( "BEGIN_OBJECT 1 $", paths.get( 0 ) );
+		assertEquals( "OBJECT_KEY 1 $.id", paths.get( 1 ) );
+		assertEquals( "LONG 1 $.id", paths.get( 2 ) );
+		assertTrue( paths.contains( "BEGIN_ARRAY 2 $.tags" ) );
+		assertTrue( paths.contains( "STRING 2 $.tags[0]" ) );
+		assertTrue( paths.contains( "BEGIN_ARRAY 3 $.tags[1]" ) );
+		assertTrue( paths.contains( "INTEGER 3 $.tags[1][0]" ) );
+		assertTrue( paths.contains( "INTEGER 4 $.tags[1][1].x" ) );
+		assertTrue( paths.contains( "END_OBJECT 3 $.tags[1][1]" ) );
+		assertTrue( paths.contains( "END_ARRAY 1 $.tags" ) );
+		assertEquals( "END_OBJECT 0 $", paths.get( paths.size() - 1 ) );
+	}
+
+	@Test
+	public void skipChildren_shouldSkipToEndOfContainer() throws IOException {
+		JSONReader reader = new JSONReader( DOCUMENT );
+		JSONKey count = new JSONKey( "count" );
+		assertEquals( JSONReader.Token.BEGIN_OBJECT, reader.nextToken() );
+		long value = 0;
+		while( reader.nextToken() == JSONReader.Token.OBJECT_KEY ) {
+			boolean wanted = reader.isKey( count );
+			reader.nextToken();
+			if( wanted ) {
+				value = reader.longValue();
+			} else {
+				reader.skipChildren();
+			}
+		}
+		assertEquals( JSONReader.Token.END_OBJECT, reader.currentToken() );
+		assertEquals( 0, reader.depth() );
+		assertEquals( 42, value );
+		assertNull( reader.nextToken() );
+	}
+
+	@Test
+	public void typedGetters_shouldConvertNumbers() throws IOException {
+		JSONReader reader = new JSONReader( "[7,9007199254740993,0.5,1e400,\"sé\"]" );
+		reader.nextToken();
+		reader.nextToken();
+		assertEquals( 7, reader.intValue() );
+		assertEquals( 7.0, reader.doubleValue(), 0 );
+		reader.nextToken();
+		assertEquals( 9007199254740993L, reader.longValue() );
+		reader.nextToken();
+		assertEquals( 0.5, reader.doubleValue(), 0 );
+		assertEquals( 0, reader.intValue() );
+		reader.nextToken();
+		assertEquals( JSONReader.Token.DOUBLE, reader.currentToken() );
+		assertEquals( Double.POSITIVE_INFINITY, reader.doubleValue(), 0 );
+		reader.nextToken();
+		assertEquals( "sé", reader.stringValue() );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void stringValue_onNumber_shouldFail() throws IOException {
+		JSONReader reader = new JSONReader( "1" );
+		reader.nextToken();
+		reader.stringValue();
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.twuni.twoson;
+
+import org.junit.Test;
+
+public class JSONTapeTest extends TestFixture {
+
+	private static final String DOCUMENT = "{\"id\":9007199254740993,\"name\":\"tape\",\"ratio\":0.25,\"ok\":true,\"none\":null,\"tags\":[\"a\",\"b\",[1,2,{\"x\":-1}],{}],\"nested\":{\"deep\":{\"deeper\":[]}},\"count\":42}";
+
+	@Test
+	public void get_shouldNavigateLikeJSONValue() {
+		JSONTapeValue root = JSONParser.parseTape( DOCUMENT ).getRoot();
+		JSONValue tree = JSONParser.parse( DOCUMENT );
+
+		assertEquals( JSONValue.Type.OBJECT, root.type() );
+		assertEquals( tree.length(), root.length() );
+		assertEquals( 9007199254740993L, root.get( "id" ).longValue() );
+		assertEquals( JSONValue.Type.LONG, root.get( "id" ).type() );
+		assertArrayEquals( tree.get( "name" ).stringValue, root.get( "name" ).stringValue() );
+		assertEquals( 0.25, root.get( "ratio" ).doubleValue(), 0 );
+		assertTrue( root.get( "ok" ).booleanValue() );
+		assertEquals( JSONValue.Type.NULL, root.get( "none" ).type() );
+		assertEquals( 4, root.get( "tags" ).length() );
+		assertEquals( -1, root.get( "tags" ).get( 2 ).get( 2 ).get( "x" ).intValue() );
+		assertEquals( 0, root.get( "tags" ).get( 3 ).length() );
+		assertEquals( 0, root.get( "nested" ).get( "deep" ).get( "deeper" ).length() );
+		assertEquals( 42, root.get( "count" ).intValue() );
+		assertNull( root.get( "missing" ) );
+		for( int i = 0; i < tree.length(); i++ ) {
+			assertArrayEquals( tree.keyAt( i ), root.keyAt( i ) );
+		}
+	}
+
+	@Test
+	public void first_shouldIterateChildrenInOrder() {
+		JSONTapeValue root = JSONParser.parseTape( DOCUMENT ).getRoot();
+		int count = 0;
+		for( JSONTapeValue property = root.first(); property != null; property = property.next() ) {
+			assertArrayEquals( root.keyAt( count ), property.key() );
+			count++;
+		}
+		assertEquals( root.length(), count );
+		assertNull( root.get( "tags" ).get( 3 ).first() );
+	}
+
+	@Test
+	public void toJSONValue_shouldReproduceTree() {
+		JSONTape tape = JSONParser.parseTape( DOCUMENT );
+		assertEquals( JSONParser.parse( DOCUMENT ).toString(), tape.getRoot().toJSONValue().toString() );
+		assertEquals( JSONParser.parse( "[1,2,{\"x\":-1}]" ).toString(), tape.getRoot().get( "tags" ).get( 2 ).toJSONValue().toString() );
+	}
+
+	@Test
+	public void footprint_shouldStoreRepeatedKeysOnce() {
+		StringBuilder json = new StringBuilder( "[" );
+		for( int i = 0; i < 1000; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "{\"id\":" ).append( i ).append( ",\"name\":\"item\"}" );
+		}
+		JSONTape tape = JSONParser.parseTape( json.append( "]" ).toString() );
+		assertEquals( 1000, tape.getRoot().length() );
+		assertTrue( tape.footprint() < 1000 * 7 * 8 + 1024 );
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.twuni.twoson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class JSONValueTest extends TestFixture {
+
+	private static JSONValue objectWithKeys( int count ) {
+		StringBuilder json = new StringBuilder( "{" );
+		for( int i = 0; i < count; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( "\"key" ).append( i ).append( "\":" ).append( i );
+		}
+		return JSONParser.parse( json.append( "}" ).toString() );
+	}
+
+	@Test
+	public void get_onLargeObject_shouldFindEveryKey() {
+		JSONValue value = objectWithKeys( 5000 );
+		for( int i = 0; i < 5000; i++ ) {
+			assertEquals( i, value.get( "key" + i ).intValue );
+			assertEquals( i, value.get( new JSONKey( "key" + i ) ).intValue );
+		}
+		assertNull( value.get( "key5000" ) );
+		assertNull( value.get( new JSONKey( "" ) ) );
+	}
+
+	@Test
+	public void get_onSmallObject_shouldFindEveryKey() {
+		JSONValue value = objectWithKeys( 3 );
+		JSONKey key = new JSONKey( "key2" );
+		assertEquals( 2, value.get( key ).intValue );
+		assertNull( value.get( new JSONKey( "key3" ) ) );
+	}
+
+	@Test
+	public void get_withCollidingKeys_shouldFindEveryKey() {
+		String [] keys = { "" };
+		for( int round = 0; round < 14; round++ ) {
+			String [] longer = new String [keys.length << 1];
+			for( int i = 0; i < keys.length; i++ ) {
+				longer[i << 1] = keys[i] + "Aa";
+				longer[i << 1 | 1] = keys[i] + "BB";
+			}
+			keys = longer;
+		}
+		StringBuilder json = new StringBuilder( "{" );
+		for( int i = 0; i < keys.length; i++ ) {
+			json.append( i > 0 ? "," : "" ).append( '"' ).append( keys[i] ).append( "\":" ).append( i );
+		}
+		JSONValue value = JSONParser.parse( json.append( "}" ).toString() );
+		for( int i = 0; i < keys.length; i++ ) {
+			assertEquals( i, value.get( keys[i] ).intValue );
+			assertEquals( i, value.get( new JSONKey( keys[i] ) ).intValue );
+		}
+		assertNull( value.get( "AaBB" ) );
+		assertFalse( new JSONKey( "AaAa" ).hash == new JSONKey( "BBBB" ).hash );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void get_withKeyOnArray_shouldFail() {
+		JSONParser.parse( "[]" ).get( new JSONKey( "a" ) );
+	}
+
+	@Test
+	public void get_withRepeatedKey_shouldReturnFirstOccurrence() {
+		StringBuilder json = new StringBuilder( "{\"dup\":\"first\"" );
+		for( int i = 0; i < 100; i++ ) {
+			json.append( ",\"k" ).append( i ).append( "\":" ).append( i );
+		}
+		JSONValue value = JSONParser.parse( json.append( ",\"dup\":\"second\"}" ).toString() );
+		assertArrayEquals( JSONUtils.toByteArray( "first" ), value.get( "dup" ).stringValue );
+		assertArrayEquals( JSONUtils.toByteArray( "first" ), value.get( new JSONKey( "dup" ) ).stringValue );
+	}
+
+	@Test
+	public void toString_shouldWriteCompactJSON() {
+		String json = "{\"a\":[1,2.5,-3000000000,true,null,\"x\\\"y\"],\"b\":{},\"c\":[[]],\"d\":{\"e\":\"\u00e9\\n\"}}";
+		assertEquals( json, JSONParser.parse( json ).toString() );
+	}
+
+	@Test
+	public void writeTo_withDeepNesting_shouldNotRecurse() throws IOException {
+		JSONValue value = new JSONValue( new JSONValue [0] );
+		for( int i = 1; i < 10000; i++ ) {
+			value = i % 2 == 0 ? new JSONValue( new JSONValue [] { value } ) : new JSONValue( new JSONObjectProperty [] { new JSONObjectProperty( JSONUtils.toByteArray( "k" ), value ) } );
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		value.writeTo( out );
+		String json = out.toString( "UTF-8" );
+		assertEquals( 5000 * 6 + 4999 * 2 + 2, json.length() );
+		assertTrue( json.startsWith( "{\"k\":[{\"k\":[" ) );
+		assertEquals( 5000 * 5 + 4999, json.indexOf( "[]" ) );
+		assertTrue( json.endsWith( "]}]}" ) );
+	}
+
+}